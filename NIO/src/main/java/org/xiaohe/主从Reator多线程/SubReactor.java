@@ -1,9 +1,12 @@
 package org.xiaohe.主从Reator多线程;
 
+import org.xiaohe.hashedwheel.timer.LocalHashedWheelTimer;
+
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author : 小何
@@ -12,6 +15,11 @@ import java.util.Set;
  */
 public class SubReactor implements Runnable {
     private final Selector selector;
+    /**
+     * 由这个线程自己驱动的时间轮，select 的超时时间就是下一个任务的到期时间，到期的任务在这个线程中执行。
+     * 只能在这个线程中使用（比如 dispatch 出去的 Handler 里），不需要任何同步
+     */
+    private final LocalHashedWheelTimer timer = new LocalHashedWheelTimer(1, TimeUnit.MILLISECONDS, 512);
 
     public SubReactor(Selector selector) {
         this.selector = selector;
@@ -21,13 +29,23 @@ public class SubReactor implements Runnable {
     public void run() {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                selector.select();
+                long timeoutMillis = timer.selectTimeoutMillis(System.nanoTime());
+                if (timeoutMillis < 0) {
+                    // 没有定时任务，一直阻塞到有事件
+                    selector.select();
+                } else if (timeoutMillis == 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(timeoutMillis);
+                }
                 Set<SelectionKey> selectionKeys = selector.selectedKeys();
                 Iterator<SelectionKey> iterator = selectionKeys.iterator();
                 while (iterator.hasNext()) {
                     dispatch(iterator.next());
                     iterator.remove();
                 }
+                // 执行到期的定时任务
+                timer.tick(System.nanoTime());
              } catch (Exception e) {
 
             }
@@ -44,4 +62,8 @@ public class SubReactor implements Runnable {
     public Selector getSelector() {
         return selector;
     }
+
+    public LocalHashedWheelTimer getTimer() {
+        return timer;
+    }
 }
@@ -180,9 +180,21 @@ public abstract class Recycler<T> {
             this.stack = stack;
         }
 
+        /**
+         * 将对象放回它所属的 stack 中，不是本线程的对象会放进 WeakOrderQueue 等着那个线程来拿
+         * @param object
+         */
         @Override
         public void recycle(T object) {
-
+            if (object != value) {
+                throw new IllegalArgumentException("object does not belong to handle");
+            }
+            Stack<?> stack = this.stack;
+            // 已经被回收过了（放进 WeakOrderQueue 时 stack 会被置为空）
+            if (lastRecycledId != recycleId || stack == null) {
+                throw new IllegalStateException("recycled already");
+            }
+            stack.push(this);
         }
     }
     // --------------------------------------------------------------------------------------------------------
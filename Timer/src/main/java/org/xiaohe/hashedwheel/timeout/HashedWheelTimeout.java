@@ -1,10 +1,14 @@
 package org.xiaohe.hashedwheel.timeout;
 
+import com.xiaohe.recycle3.Recycler;
+import org.xiaohe.hashedwheel.timer.CatchUpPolicy;
 import org.xiaohe.hashedwheel.timer.HashedWheelBucket;
 import org.xiaohe.hashedwheel.timer.HashedWheelTimer;
 import org.xiaohe.hashedwheel.timer.Timer;
+import org.xiaohe.hashedwheel.timertask.BatchTimerTask;
 import org.xiaohe.hashedwheel.timertask.TimerTask;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import static io.netty.util.internal.StringUtil.simpleClassName;
@@ -14,10 +18,31 @@ import static io.netty.util.internal.StringUtil.simpleClassName;
  * @Description : 时间轮中每一个任务都对应一个 HashedWheelTimeout
  * @date : 2024-01-18 21:11
  */
-public class HashedWheelTimeout implements Timeout {
+public class HashedWheelTimeout implements Timeout, Runnable {
     public static final int ST_INIT = 0;
     public static final int ST_CANCELLED = 1;
     public static final int ST_EXPIRED = 2;
+    /**
+     * 池化模式下，已经放回对象池，等着被复用
+     */
+    public static final int ST_RECYCLED = 3;
+    /**
+     * reset 正在修改 deadline，或者 worker 正在检查 deadline 是否真的到了。
+     * 只会持续几条指令，其他线程遇到这个状态就自旋等一下
+     */
+    public static final int ST_LOCKED = 4;
+
+    /**
+     * state 的低三位是状态，其余的位是代数（generation）。
+     * 池化模式下同一个对象会被复用，每复用一次代数加一，旧的 PooledTimeout 拿着旧的代数就取消不了新的任务
+     */
+    private static final int ST_MASK = 7;
+    private static final int GENERATION_SHIFT = 3;
+    private static final int GENERATION_UNIT = 1 << GENERATION_SHIFT;
+    /**
+     * 不检查代数
+     */
+    private static final int ANY_GENERATION = -1;
 
     /**
      * 该任务的状态
@@ -35,14 +60,38 @@ public class HashedWheelTimeout implements Timeout {
     public final HashedWheelTimer timer;
 
     /**
-     * 该timeout对应的 task
+     * 该timeout对应的 task，池化模式下每次复用时重新赋值
      */
-    public final TimerTask task;
+    public TimerTask task;
 
     /**
-     * 该任务的执行时间
+     * 该任务的执行时间，池化模式下每次复用时重新赋值，reset 时由其他线程修改
      */
-    public final long deadline;
+    public volatile long deadline;
+
+    /**
+     * 周期任务的周期（纳秒），和 jdkTimer 一样：0 是一次性任务，大于0是固定频率，小于0是固定延迟
+     */
+    public long period;
+
+    /**
+     * 固定频率的任务落后时怎么追上进度
+     */
+    public CatchUpPolicy catchUpPolicy = CatchUpPolicy.FIRE_ALL;
+
+    /**
+     * 固定频率的任务因为落后而合并或者跳过的执行次数，只在执行任务的线程中修改
+     */
+    public long missedExecutions;
+
+    /**
+     * 持久化任务在 TimerJournal 中的 id，0 表示不持久化
+     */
+    public long journalId;
+    /**
+     * 持久化任务的 taskKey，reset 时重新写 SCHEDULED 记录要用
+     */
+    public long journalTaskKey;
 
     /**
      * 该任务在时间轮中，还有几轮可以执行
@@ -60,10 +109,79 @@ public class HashedWheelTimeout implements Timeout {
      */
     public HashedWheelBucket bucket;
 
+    /**
+     * 池化模式下对象池的 handle，非池化模式为空
+     */
+    private final Recycler.Handle<HashedWheelTimeout> handle;
+
+    /**
+     * 池化模式下使用，只有 worker 线程读写（入队前由 newTimeout 设置）
+     * queued : 是否还在 timer.timeouts 队列中
+     * cancelProcessed : processCancelledTasks 是否已经处理过它
+     * 取消的任务可能同时在 timeouts 和 cancelledTimeouts 两个队列中，两个队列都取出来之后才能回收
+     */
+    public boolean queued;
+    public boolean cancelProcessed;
+
     public HashedWheelTimeout(HashedWheelTimer timer, TimerTask task, long deadline) {
         this.timer = timer;
         this.task = task;
         this.deadline = deadline;
+        this.handle = null;
+    }
+
+    /**
+     * 池化模式下由对象池创建，创建出来时是已回收的状态，需要调用 init
+     * @param timer
+     * @param handle
+     */
+    public HashedWheelTimeout(HashedWheelTimer timer, Recycler.Handle<HashedWheelTimeout> handle) {
+        this.timer = timer;
+        this.handle = handle;
+        this.state = ST_RECYCLED;
+    }
+
+    /**
+     * 从对象池中取出来之后，给它赋上新任务
+     * @param task
+     * @param deadline
+     * @return 这一次复用的代数
+     */
+    public int init(TimerTask task, long deadline) {
+        this.task = task;
+        this.deadline = deadline;
+        this.remainingRounds = 0;
+        this.queued = true;
+        this.cancelProcessed = false;
+        int generation = state & ~ST_MASK;
+        // volatile 写，保证上面的字段对其他线程可见
+        state = generation | ST_INIT;
+        return generation >>> GENERATION_SHIFT;
+    }
+
+    /**
+     * 池化模式下，任务执行完、或者取消被 worker 处理完之后，放回对象池
+     */
+    public void recycle() {
+        if (handle == null) {
+            return;
+        }
+        task = null;
+        // 代数加一，旧的 PooledTimeout 再也操作不了这个对象
+        state = ((state & ~ST_MASK) + GENERATION_UNIT) | ST_RECYCLED;
+        handle.recycle(this);
+    }
+
+    public boolean isPooled() {
+        return handle != null;
+    }
+
+    /**
+     * 当前的代数
+     * @return
+     */
+    public int generation() {
+        return state >>> GENERATION_SHIFT;
     }
 
     @Override
@@ -78,12 +196,12 @@ public class HashedWheelTimeout implements Timeout {
 
     @Override
     public boolean isExpired() {
-        return state == ST_EXPIRED;
+        return state() == ST_EXPIRED;
     }
 
     @Override
     public boolean isCancelled() {
-        return state == ST_CANCELLED;
+        return state() == ST_CANCELLED;
     }
 
     @Override
@@ -91,33 +209,180 @@ public class HashedWheelTimeout implements Timeout {
         if (!compareAndSetState(ST_INIT, ST_CANCELLED)) {
             return false;
         }
-        // 将这个任务添加到 timer的取消队列 中
-        timer.cancelledTimeouts.add(this);
+        // 将这个任务添加到 timer的取消队列 中，LAZY 策略下只记一个墓碑
+        timer.onCancel(this);
+        return true;
+    }
+
+    /**
+     * 只有代数一致时才能取消，PooledTimeout 调用
+     * @param generation
+     * @return
+     */
+    public boolean cancel(int generation) {
+        if (!compareAndSetState(generation, ST_INIT, ST_CANCELLED)) {
+            return false;
+        }
+        timer.onCancel(this);
+        return true;
+    }
+
+    @Override
+    public boolean reset(long delay, TimeUnit unit) {
+        return reset(ANY_GENERATION, delay, unit);
+    }
+
+    /**
+     * 原地修改 deadline，不需要取消再新建一个任务。
+     * 推迟时只修改 deadline，worker 走到原来的 bucket 时发现还没到期，会把它挪到新的 bucket；
+     * 提前时 worker 不会提前来看原来的 bucket，所以放进 timer.rescheduledTimeouts 通知 worker。
+     * 持久化的任务先在 journal 中记下新的 deadline，否则重启之后还会按旧的时间恢复
+     * @param generation 只有代数一致时才能修改，PooledTimeout 调用
+     * @param delay
+     * @param unit
+     * @return 任务已经执行、取消或者被回收时返回 false
+     */
+    public boolean reset(int generation, long delay, TimeUnit unit) {
+        long newDeadline = System.nanoTime() + unit.toNanos(delay) - timer.startTime;
+        if (delay > 0 && newDeadline < 0) {
+            newDeadline = Long.MAX_VALUE;
+        }
+        // 锁住状态，worker 不会在修改 deadline 的过程中判断它是否到期
+        if (!compareAndSetState(generation, ST_INIT, ST_LOCKED)) {
+            return false;
+        }
+        if (journalId != 0) {
+            try {
+                // 锁住期间写 journal，取消、执行时读到的一定是新的 journalId
+                timer.onReset(this, delay, unit);
+            } catch (RuntimeException e) {
+                unlock(ST_INIT);
+                throw e;
+            }
+        }
+        long oldDeadline = deadline;
+        deadline = newDeadline;
+        unlock(ST_INIT);
+        if (newDeadline < oldDeadline) {
+            timer.rescheduledTimeouts.add(this);
+            timer.wakeUpWorker(newDeadline);
+        }
         return true;
     }
 
     public boolean compareAndSetState(int expect, int update) {
-        return STATE_UPDATER.compareAndSet(this, expect, update);
+        return compareAndSetState(ANY_GENERATION, expect, update);
     }
+
+    /**
+     * 状态为 expect 并且代数一致时，修改为 update。
+     * 遇到 ST_LOCKED 说明别的线程正在修改 deadline，自旋等它结束
+     * @param generation ANY_GENERATION 表示不检查代数
+     * @param expect
+     * @param update
+     * @return
+     */
+    public boolean compareAndSetState(int generation, int expect, int update) {
+        for (;;) {
+            int s = state;
+            if (generation != ANY_GENERATION && (s >>> GENERATION_SHIFT) != generation) {
+                return false;
+            }
+            int st = s & ST_MASK;
+            if (st != expect) {
+                if (st == ST_LOCKED) {
+                    continue;
+                }
+                return false;
+            }
+            if (STATE_UPDATER.compareAndSet(this, s, (s & ~ST_MASK) | update)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 持有 ST_LOCKED 的线程释放状态，此时别的线程都改不了 state
+     * @param update
+     */
+    public void unlock(int update) {
+        state = (state & ~ST_MASK) | update;
+    }
+
     public int state() {
-        return state;
+        return state & ST_MASK;
     }
 
     /**
-     * 让该任务现在就执行
+     * worker 线程调用：bucket 到了，先锁住状态，再检查 deadline 是否被 reset 推迟了
+     * @return false 说明已经取消了
+     */
+    public boolean lockForExpire() {
+        return compareAndSetState(ST_INIT, ST_LOCKED);
+    }
+
+    /**
+     * 让该任务现在就执行，交给 timer 的 taskExecutor，worker 线程不会被用户的任务拖慢。
+     * 调用前 worker 线程已经通过 lockForExpire 锁住了状态
      */
     public void expire() {
-        if (!compareAndSetState(ST_INIT, ST_EXPIRED)) {
+        // 周期任务执行期间还可以被取消，所以回到 INIT
+        if (!compareAndSetState(ST_LOCKED, period == 0 ? ST_EXPIRED : ST_INIT)) {
             return;
         }
+        timer.onExpire(this);
+        if (task instanceof BatchTimerTask) {
+            // 先攒起来，这一次 tick 结束时和同类任务一起执行
+            timer.worker.addToBatch(this);
+            return;
+        }
+
+        try {
+            timer.taskExecutor.execute(this);
+        } catch (Throwable t) {
+            // 线程池拒绝了这个任务，不能让异常跑出 worker 线程的循环
+            new RuntimeException("An exception was thrown while submit " + TimerTask.class.getSimpleName()
+                    + " for execution.", t).printStackTrace();
+            afterRun();
+        }
+    }
 
+    /**
+     * 在 taskExecutor 中执行用户的任务。
+     * 池化模式下执行完就回收，所以 task 拿到的 Timeout 只在 run 执行期间有效。
+     * 周期任务抛出异常不影响下一次执行
+     */
+    @Override
+    public void run() {
         try {
             task.run(this);
         } catch (Throwable t) {
-            throw new RuntimeException("An exception was thrown by" + TimerTask.class.getSimpleName() + ".", t);
+            new RuntimeException("An exception was thrown by " + TimerTask.class.getSimpleName() + ".", t)
+                    .printStackTrace();
+        } finally {
+            afterRun();
         }
     }
 
+    /**
+     * 一次性任务执行完就回收，周期任务放回时间轮
+     */
+    public void afterRun() {
+        if (period == 0) {
+            recycle();
+        } else {
+            timer.reschedule(this);
+        }
+    }
+
+    /**
+     * 固定频率的任务因为落后而合并或者跳过的执行次数
+     * @return
+     */
+    public long missedExecutions() {
+        return missedExecutions;
+    }
+
     /**
      * 如果这个任务已经在 bucket 中了，那就调用 bucket 的 remove方法将其移除。否则直接减就行了
      */
@@ -0,0 +1,98 @@
+package org.xiaohe.hashedwheel.timeout;
+
+import org.xiaohe.hashedwheel.timer.LocalHashedWheelTimer;
+import org.xiaohe.hashedwheel.timer.Timer;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : LocalHashedWheelTimer 中的任务。只在事件循环线程中使用，所有字段都不需要 volatile / CAS
+ * @date : 2024-03-24 16:10
+ */
+public class LocalTimeout implements Timeout {
+    public static final int ST_INIT = 0;
+    public static final int ST_CANCELLED = 1;
+    public static final int ST_EXPIRED = 2;
+
+    public final LocalHashedWheelTimer timer;
+    public final TimerTask task;
+    public int state = ST_INIT;
+
+    /**
+     * 相对于 timer.startTime 的执行时间
+     */
+    public long deadline;
+    public long remainingRounds;
+
+    /**
+     * 所在 bucket 的下标和链表中的前后任务，不在时间轮中时 bucket 为 -1
+     */
+    public int bucket = -1;
+    public LocalTimeout prev;
+    public LocalTimeout next;
+
+    public LocalTimeout(LocalHashedWheelTimer timer, TimerTask task, long deadline) {
+        this.timer = timer;
+        this.task = task;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public Timer timer() {
+        return timer;
+    }
+
+    @Override
+    public TimerTask task() {
+        return task;
+    }
+
+    @Override
+    public boolean isExpired() {
+        return state == ST_EXPIRED;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return state == ST_CANCELLED;
+    }
+
+    /**
+     * 在事件循环线程中直接从链表中摘掉，不需要取消队列。
+     * 其他线程调用时（比如 delay、withDeadline 的 future 在别的线程中完成）只提交一个取消请求，由事件循环线程在下一次 tick 时处理，
+     * 这时返回 true 只表示请求已经提交，如果任务在处理请求之前已经到期，仍然会执行
+     * @return
+     */
+    @Override
+    public boolean cancel() {
+        if (!timer.inOwnerThread()) {
+            timer.cancelLater(this);
+            return true;
+        }
+        if (state != ST_INIT) {
+            return false;
+        }
+        state = ST_CANCELLED;
+        timer.remove(this);
+        return true;
+    }
+
+    @Override
+    public boolean reset(long delay, TimeUnit unit) {
+        if (!timer.inOwnerThread()) {
+            throw new IllegalStateException("LocalTimeout can only be reset from its event loop thread");
+        }
+        if (state != ST_INIT) {
+            return false;
+        }
+        timer.reschedule(this, delay, unit);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "LocalTimeout(deadline: " + deadline + " ns, state: " + state + ", task: " + task + ')';
+    }
+}
@@ -0,0 +1,86 @@
+package org.xiaohe.hashedwheel.timeout;
+
+import org.xiaohe.hashedwheel.timer.Timer;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 池化模式下 newTimeout 返回给用户的 Timeout。
+ *                HashedWheelTimeout 执行完或者取消之后会被放回对象池复用，用户手里的引用可能已经过期了，
+ *                所以这里记下创建时的代数，代数不一致说明对象已经被回收，所有操作都不会影响新的任务
+ * @date : 2024-03-06 21:30
+ */
+public final class PooledTimeout implements Timeout {
+    private final HashedWheelTimeout timeout;
+    private final TimerTask task;
+    private final int generation;
+
+    public PooledTimeout(HashedWheelTimeout timeout, TimerTask task, int generation) {
+        this.timeout = timeout;
+        this.task = task;
+        this.generation = generation;
+    }
+
+    @Override
+    public Timer timer() {
+        return timeout.timer;
+    }
+
+    @Override
+    public TimerTask task() {
+        return task;
+    }
+
+    /**
+     * 对象已经被回收时无法再知道它是执行了还是取消了，返回 false
+     * @return
+     */
+    @Override
+    public boolean isExpired() {
+        return timeout.generation() == generation && timeout.isExpired();
+    }
+
+    /**
+     * 对象已经被回收时返回 false
+     * @return
+     */
+    @Override
+    public boolean isCancelled() {
+        return timeout.generation() == generation && timeout.isCancelled();
+    }
+
+    /**
+     * 代数和状态放在同一个 int 中一起 CAS，对象被回收复用之后一定会失败
+     * @return
+     */
+    @Override
+    public boolean cancel() {
+        return timeout.cancel(generation);
+    }
+
+    /**
+     * 对象被回收复用之后，代数不一致，一定会失败
+     * @param delay
+     * @param unit
+     * @return
+     */
+    @Override
+    public boolean reset(long delay, TimeUnit unit) {
+        return timeout.reset(generation, delay, unit);
+    }
+
+    /**
+     * 底层的对象是否已经被回收
+     * @return
+     */
+    public boolean isRecycled() {
+        return timeout.generation() != generation;
+    }
+
+    @Override
+    public String toString() {
+        return isRecycled() ? "PooledTimeout(recycled, task: " + task + ')' : timeout.toString();
+    }
+}
@@ -3,6 +3,8 @@ package org.xiaohe.hashedwheel.timeout;
 import org.xiaohe.hashedwheel.timer.Timer;
 import org.xiaohe.hashedwheel.timertask.TimerTask;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author : 小何
  * @Description : 一个 Timeout 对应一个 TimerTask，可以查看这个任务的状态
@@ -39,4 +41,12 @@ public interface Timeout {
      */
     boolean cancel();
 
+    /**
+     * 重新设置任务的延迟时间，从现在开始计算。不需要取消再新建一个任务
+     * @param delay
+     * @param unit
+     * @return 任务已经执行或者取消时返回 false
+     */
+    boolean reset(long delay, TimeUnit unit);
+
 }
@@ -0,0 +1,23 @@
+package org.xiaohe.hashedwheel.timer;
+
+/**
+ * @author : 小何
+ * @Description : 任务数达到 maxPendingTimeouts 时，newTimeout 怎么处理新来的任务。
+ *                不管是哪种策略，tryNewTimeout 都不会抛异常、不会阻塞，满了直接返回 null
+ * @date : 2024-03-30 10:12
+ */
+public enum AdmissionPolicy {
+    /**
+     * 抛出 RejectedExecutionException，默认策略
+     */
+    REJECT,
+    /**
+     * 阻塞调用线程，等 worker 腾出名额，最多等 admissionTimeout，超时后抛出 RejectedExecutionException
+     */
+    BLOCK,
+    /**
+     * 不放进时间轮，调用线程自己等到任务的执行时间，然后直接执行。调用线程会被阻塞 delay 这么久，生产者自然就慢下来了，
+     * 适合延迟很短的任务。只对 HashedWheelTimer.newTimeoutOrRunInCaller 生效，newTimeout、周期任务和持久化任务都按 REJECT 处理
+     */
+    CALLER_RUNS
+}
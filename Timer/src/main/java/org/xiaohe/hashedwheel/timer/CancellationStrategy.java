@@ -0,0 +1,19 @@
+package org.xiaohe.hashedwheel.timer;
+
+/**
+ * @author : 小何
+ * @Description : 取消任务的策略
+ * @date : 2024-03-09 16:02
+ */
+public enum CancellationStrategy {
+    /**
+     * 取消时放入 cancelledTimeouts，worker 每一次 tick 都把它们从 bucket 中逐个删除
+     */
+    EAGER,
+    /**
+     * 取消时只修改状态，任务变成墓碑（tombstone）留在 bucket 中。
+     * worker 扫到这个 bucket 时顺手删掉，墓碑太多时整理所有 bucket；还没转移到 bucket 的任务在转移时直接丢掉。
+     * 适合绝大部分任务都会被取消的场景
+     */
+    LAZY
+}
@@ -0,0 +1,21 @@
+package org.xiaohe.hashedwheel.timer;
+
+/**
+ * @author : 小何
+ * @Description : 固定频率的周期任务落后时（worker 线程被拖慢、任务执行太久），怎么追上进度
+ * @date : 2024-03-10 14:35
+ */
+public enum CatchUpPolicy {
+    /**
+     * 错过的每一次都要执行，一次接一次地补上
+     */
+    FIRE_ALL,
+    /**
+     * 错过的几次合并成一次，马上执行，错过的次数记在 missedExecutions 中
+     */
+    COALESCE,
+    /**
+     * 错过的都不执行了，等到下一个对齐的时间点再执行，错过的次数记在 missedExecutions 中
+     */
+    SKIP
+}
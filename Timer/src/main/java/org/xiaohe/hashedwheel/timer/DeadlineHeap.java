@@ -0,0 +1,141 @@
+package org.xiaohe.hashedwheel.timer;
+
+import org.xiaohe.hashedwheel.timeout.HashedWheelTimeout;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * @author : 小何
+ * @Description : 精确模式下，当前这一格里的任务按 deadline 排成小根堆，worker 按各自的 deadline 依次执行。
+ *                只有 worker 线程使用。入堆时把 deadline 复制一份，任务被 reset 修改 deadline 也不会破坏堆的顺序：
+ *                推迟的任务到了旧的 deadline 再重新放回去，提前的任务由 processRescheduledTimeouts 用 remove 删掉再重新入堆
+ * @date : 2024-03-17 10:42
+ */
+public class DeadlineHeap {
+    /**
+     * 和 jdkTimer.TaskQueue 一样，下标 0 不放元素
+     */
+    private HashedWheelTimeout[] queue = new HashedWheelTimeout[64];
+    private long[] deadlines = new long[64];
+
+    private int size = 0;
+
+    public void add(HashedWheelTimeout timeout) {
+        if (size + 1 == queue.length) {
+            queue = Arrays.copyOf(queue, 2 * queue.length);
+            deadlines = Arrays.copyOf(deadlines, 2 * deadlines.length);
+        }
+        queue[++size] = timeout;
+        deadlines[size] = timeout.deadline;
+        fixUp(size);
+    }
+
+    /**
+     * 堆顶任务入堆时的 deadline，调用前要保证不为空
+     * @return
+     */
+    public long peekDeadline() {
+        return deadlines[1];
+    }
+
+    /**
+     * 取出并删除堆顶任务
+     * @return
+     */
+    public HashedWheelTimeout poll() {
+        if (size == 0) {
+            return null;
+        }
+        HashedWheelTimeout min = queue[1];
+        queue[1] = queue[size];
+        deadlines[1] = deadlines[size];
+        queue[size] = null;
+        size--;
+        fixDown(1);
+        return min;
+    }
+
+    /**
+     * 删除堆中的某个任务。堆里只有当前这一格的任务，并且只有被 reset 提前的任务才会走到这里，所以直接线性查找，
+     * 不在 HashedWheelTimeout 中为它多加一个下标字段
+     * @param timeout
+     * @return 任务不在堆中时返回 false
+     */
+    public boolean remove(HashedWheelTimeout timeout) {
+        for (int i = 1; i <= size; i++) {
+            if (queue[i] != timeout) {
+                continue;
+            }
+            queue[i] = queue[size];
+            deadlines[i] = deadlines[size];
+            queue[size] = null;
+            size--;
+            if (i <= size) {
+                fixDown(i);
+                fixUp(i);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 清空堆，未执行、未取消的任务放入 set 中
+     * @param set
+     */
+    public void clearTimeouts(Set<Timeout> set) {
+        for (int i = 1; i <= size; i++) {
+            HashedWheelTimeout timeout = queue[i];
+            if (!timeout.isExpired() && !timeout.isCancelled()) {
+                set.add(timeout);
+            }
+            queue[i] = null;
+        }
+        size = 0;
+    }
+
+    private void fixUp(int k) {
+        while (k > 1) {
+            int j = k >> 1;
+            if (deadlines[j] <= deadlines[k]) {
+                break;
+            }
+            swap(j, k);
+            k = j;
+        }
+    }
+
+    private void fixDown(int k) {
+        int j;
+        while ((j = k << 1) <= size && j > 0) {
+            // 找到两个孩子中 deadline 小的那个
+            if (j < size && deadlines[j] > deadlines[j + 1]) {
+                j++;
+            }
+            if (deadlines[k] <= deadlines[j]) {
+                break;
+            }
+            swap(j, k);
+            k = j;
+        }
+    }
+
+    private void swap(int i, int j) {
+        HashedWheelTimeout timeout = queue[i];
+        queue[i] = queue[j];
+        queue[j] = timeout;
+        long deadline = deadlines[i];
+        deadlines[i] = deadlines[j];
+        deadlines[j] = deadline;
+    }
+}
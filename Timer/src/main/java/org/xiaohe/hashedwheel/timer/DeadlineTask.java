@@ -0,0 +1,35 @@
+package org.xiaohe.hashedwheel.timer;
+
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * @author : 小何
+ * @Description : Timer.withDeadline 使用：到期时 future 以 TimeoutException 结束；future 先完成时取消定时任务。
+ *                同一个对象既是定时任务又是 future 的完成回调，每个 deadline 只多分配这一个对象和 whenComplete 的一个节点
+ * @date : 2024-03-26 20:22
+ */
+public class DeadlineTask<T> implements TimerTask, BiConsumer<T, Throwable> {
+    private final CompletableFuture<T> future;
+    Timeout timeout;
+
+    public DeadlineTask(CompletableFuture<T> future) {
+        this.future = future;
+    }
+
+    @Override
+    public void run(Timeout timeout) {
+        // 异常只在真的超时时创建，绝大多数 deadline 不会走到这里
+        future.completeExceptionally(new TimeoutException());
+    }
+
+    @Override
+    public void accept(T result, Throwable throwable) {
+        // 超时之后 future 也会走到这里，此时 cancel 返回 false，没有额外开销
+        timeout.cancel();
+    }
+}
@@ -0,0 +1,31 @@
+package org.xiaohe.hashedwheel.timer;
+
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author : 小何
+ * @Description : Timer.delay 返回的 future，本身就是时间轮里的任务，到期时完成。
+ *                取消 future 时顺便取消定时任务，不需要再注册一个回调
+ * @date : 2024-03-26 20:15
+ */
+public class DelayFuture extends CompletableFuture<Void> implements TimerTask {
+    volatile Timeout timeout;
+
+    @Override
+    public void run(Timeout timeout) {
+        complete(null);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        Timeout timeout = this.timeout;
+        if (cancelled && timeout != null) {
+            timeout.cancel();
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,44 @@
+package org.xiaohe.hashedwheel.timer;
+
+import org.xiaohe.hashedwheel.timeout.HashedWheelTimeout;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timertask.BatchTimerTask;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author : 小何
+ * @Description : 一次 tick 中同一个 BatchTimerTask 到期的所有任务，作为一个整体交给 taskExecutor
+ * @date : 2024-03-23 14:20
+ */
+public class ExpiredBatch implements Runnable {
+    public final BatchTimerTask task;
+    public final List<Timeout> timeouts = new ArrayList<>();
+
+    public ExpiredBatch(BatchTimerTask task) {
+        this.task = task;
+    }
+
+    @Override
+    public void run() {
+        try {
+            task.run(Collections.unmodifiableList(timeouts));
+        } catch (Throwable t) {
+            new RuntimeException("An exception was thrown by " + BatchTimerTask.class.getSimpleName() + ".", t)
+                    .printStackTrace();
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * 执行完之后，一次性任务回收，周期任务放回时间轮
+     */
+    public void finish() {
+        for (Timeout timeout : timeouts) {
+            ((HashedWheelTimeout) timeout).afterRun();
+        }
+    }
+}
@@ -13,6 +13,10 @@ import java.util.Set;
 public class HashedWheelBucket {
     public HashedWheelTimeout head;
     public HashedWheelTimeout tail;
+    /**
+     * 链表中的任务数，只由 worker 线程修改，HashedWheelTimerMetrics 统计 bucket 的分布时读取
+     */
+    public int size;
 
 
     /**
@@ -24,6 +28,7 @@ public class HashedWheelBucket {
         assert timeout.bucket == null;
 
         timeout.bucket = this;
+        size++;
         if (head == null) {
             head = tail = timeout;
         } else {
@@ -36,9 +41,11 @@ public class HashedWheelBucket {
     /**
      * 将这个 bucket 中，执行时间在 deadline 前的所有任务都执行了
      * @param deadline
+     * @return 执行了多少个任务
      */
-    public void expireTimeouts(long deadline) {
+    public int expireTimeouts(long deadline) {
         HashedWheelTimeout timeout = head;
+        int expired = 0;
 
         while (timeout != null) {
             HashedWheelTimeout next = timeout.next;
@@ -47,22 +54,141 @@ public class HashedWheelBucket {
             // 1. timeout.deadline 为 1.500s，则可以执行
             // 2. timeout.deadline 为 1.7s。那么这个timeout就不用执行。执行if逻辑外的 timeout = next，然后进入下一个循环
             if (timeout.remainingRounds <= 0) {
-                next = remove(timeout);
-                if (timeout.deadline <= deadline) {
+                if (!timeout.lockForExpire()) {
+                    // 已经取消了
+                    next = removeCancelled(timeout);
+                } else if (timeout.deadline <= deadline) {
+                    // 周期任务执行完还会放回时间轮，任务数不变
+                    next = timeout.period == 0 ? remove(timeout) : unlink(timeout);
                     timeout.expire();
+                    expired++;
+                    // 在 worker 线程中执行的周期任务可能又放回了这个 bucket 的尾部
+                    if (next == null && timeout.bucket == this) {
+                        next = timeout;
+                    }
                 } else {
-                    throw new IllegalStateException(String.format("timeout.deadline (%d) > deadline (%d)", timeout.deadline, deadline));
+                    // deadline 被 reset 推迟了，挪到新的 bucket 中，任务数不变
+                    next = unlink(timeout);
+                    timeout.unlock(HashedWheelTimeout.ST_INIT);
+                    timeout.timer.worker.placeTimeout(timeout);
+                    // 单层时间轮中可能又放回了这个 bucket 的尾部（推迟了整数圈），
+                    // 它的 remainingRounds 是按照这一次 tick 算的，这一次也要减一
+                    if (next == null && timeout.bucket == this) {
+                        next = timeout;
+                    }
                 }
             } else if (timeout.isCancelled()) {
                 // 如果该任务的状态为已取消，将其remove
-                next = remove(timeout);
+                next = removeCancelled(timeout);
             } else {
                 timeout.remainingRounds--;
             }
             timeout = next;
         }
+        return expired;
+    }
+
+    /**
+     * 精确模式：这一格开始时，把这一格内到期的任务移到 worker 的 DeadlineHeap 中，由 worker 按各自的 deadline 执行。
+     * 这里不锁状态，取消和 reset 留给出堆时检查
+     * @param tickEnd 这一格的结束时间，deadline 比它小的任务都在这一格到期
+     * @param worker
+     */
+    public void drainDueTimeouts(long tickEnd, HashedWheelTimer.Worker worker) {
+        HashedWheelTimeout timeout = head;
+        while (timeout != null) {
+            HashedWheelTimeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                next = removeCancelled(timeout);
+            } else if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else if (timeout.deadline < tickEnd) {
+                next = unlink(timeout);
+                worker.addDueTimeout(timeout);
+            } else {
+                // deadline 被 reset 推迟了，挪到新的 bucket 中
+                next = unlink(timeout);
+                worker.placeTimeout(timeout);
+                if (next == null && timeout.bucket == this) {
+                    next = timeout;
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * 层级时间轮中，高层的刻度到了，将这个 bucket 中的任务重新分配到低层。
+     * 只是换个 bucket，所以不修改 pendingTimeouts
+     * @param worker
+     */
+    public void cascadeTimeouts(HashedWheelTimer.Worker worker) {
+        HashedWheelTimeout timeout = head;
+        head = tail = null;
+        size = 0;
+        while (timeout != null) {
+            HashedWheelTimeout next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            // 已取消的任务直接丢掉
+            if (timeout.isCancelled()) {
+                timeout.timer.releaseCancelled(timeout);
+            } else {
+                if (timeout.remainingRounds > 0) {
+                    // 最高层放不下的任务，还要再等一圈
+                    timeout.remainingRounds--;
+                    addTimeout(timeout);
+                } else {
+                    worker.placeTimeout(timeout);
+                }
+            }
+            timeout = next;
+        }
     }
+
+    /**
+     * 把已经取消的任务从链表中摘掉
+     * @param timeout
+     * @return
+     */
+    public HashedWheelTimeout removeCancelled(HashedWheelTimeout timeout) {
+        HashedWheelTimeout next = unlink(timeout);
+        timeout.timer.releaseCancelled(timeout);
+        return next;
+    }
+
+    /**
+     * 删除这个 bucket 中所有已取消的任务，LAZY 取消策略下墓碑太多时调用
+     * @return 删除的个数
+     */
+    public int compact() {
+        int removed = 0;
+        HashedWheelTimeout timeout = head;
+        while (timeout != null) {
+            if (timeout.isCancelled()) {
+                timeout = removeCancelled(timeout);
+                removed++;
+            } else {
+                timeout = timeout.next;
+            }
+        }
+        return removed;
+    }
+
     public HashedWheelTimeout remove(HashedWheelTimeout timeout) {
+        HashedWheelTimeout next = unlink(timeout);
+        // 删除了一个 timeout, 数量减一
+        timeout.timer.pendingTimeouts.decrementAndGet();
+        return next;
+    }
+
+    /**
+     * 只把 timeout 从链表中摘下来，不修改 pendingTimeouts，用于把任务挪到别的 bucket
+     * @param timeout
+     * @return
+     */
+    public HashedWheelTimeout unlink(HashedWheelTimeout timeout) {
         HashedWheelTimeout next = timeout.next;
         // 由于是双向链表，所以删除的逻辑比较复杂
         if (timeout.prev != null) {
@@ -82,11 +208,10 @@ public class HashedWheelBucket {
         } else if (timeout == tail) {
             tail = timeout.prev;
         }
+        size--;
         timeout.prev = null;
         timeout.next = null;
         timeout.bucket = null;
-        // 删除了一个 timeout, 数量减一
-        timeout.timer.pendingTimeouts.decrementAndGet();
         return next;
     }
 
@@ -123,6 +248,7 @@ public class HashedWheelBucket {
             this.head = next;
             next.prev = null;
         }
+        size--;
 
         head.next = null;
         head.prev = null;
@@ -0,0 +1,271 @@
+package org.xiaohe.hashedwheel.timer;
+
+import io.netty.util.internal.ObjectUtil;
+import org.xiaohe.hashedwheel.timeout.HashedWheelTimeout;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 用时间轮实现的 ScheduledExecutorService，可以直接替换 ScheduledThreadPoolExecutor：
+ *                延迟由 HashedWheelTimer 计时（O(1) 插入，代替 DelayedWorkQueue 的 O(log n) 堆），到期后交给 executor 执行。
+ *                周期任务在 executor 中执行完之后才计算下一次的时间，同一个任务不会并发执行。
+ *                和 ScheduledThreadPoolExecutor 的区别：shutdown 之后还没到期的任务直接取消，相当于
+ *                setExecuteExistingDelayedTasksAfterShutdownPolicy(false)；时间精度是 timer 的 tickDuration
+ * @date : 2024-03-27 21:05
+ */
+public class HashedWheelScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+    private final HashedWheelTimer timer;
+    private final ExecutorService executor;
+    private volatile boolean shutdown;
+
+    /**
+     * @param timer 负责计时，shutdown 时一起停止
+     * @param executor 负责执行到期的任务，shutdown 时一起关闭
+     */
+    public HashedWheelScheduledExecutor(HashedWheelTimer timer, ExecutorService executor) {
+        this.timer = ObjectUtil.checkNotNull(timer, "timer");
+        this.executor = ObjectUtil.checkNotNull(executor, "executor");
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        ObjectUtil.checkNotNull(command, "command");
+        return schedule(new WheelScheduledFuture<Void>(Executors.<Void>callable(command, null), 0), delay, unit);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        ObjectUtil.checkNotNull(callable, "callable");
+        return schedule(new WheelScheduledFuture<V>(callable, 0), delay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        ObjectUtil.checkNotNull(command, "command");
+        if (period <= 0) {
+            throw new IllegalArgumentException("period 必须大于0");
+        }
+        return schedule(new WheelScheduledFuture<Void>(Executors.<Void>callable(command, null), unit.toNanos(period)),
+                initialDelay, unit);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        ObjectUtil.checkNotNull(command, "command");
+        if (delay <= 0) {
+            throw new IllegalArgumentException("delay 必须大于0");
+        }
+        return schedule(new WheelScheduledFuture<Void>(Executors.<Void>callable(command, null), -unit.toNanos(delay)),
+                initialDelay, unit);
+    }
+
+    private <V> WheelScheduledFuture<V> schedule(WheelScheduledFuture<V> future, long delay, TimeUnit unit) {
+        if (shutdown) {
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+        try {
+            future.scheduleAfter(Math.max(unit.toNanos(delay), 0));
+        } catch (IllegalStateException e) {
+            // 和 shutdown 并发，timer 已经停止了
+            throw new RejectedExecutionException("executor has been shut down", e);
+        }
+        return future;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException("executor has been shut down");
+        }
+        executor.execute(command);
+    }
+
+    /**
+     * 停止计时，还没到期的任务全部取消；已经交给 executor 的任务继续执行完
+     */
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        for (Timeout timeout : timer.stop()) {
+            cancelUnprocessed(timeout);
+        }
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> unprocessed = new ArrayList<>();
+        for (Timeout timeout : timer.stop()) {
+            Runnable future = cancelUnprocessed(timeout);
+            if (future != null) {
+                unprocessed.add(future);
+            }
+        }
+        unprocessed.addAll(executor.shutdownNow());
+        return unprocessed;
+    }
+
+    private Runnable cancelUnprocessed(Timeout timeout) {
+        if (timeout.task() instanceof WheelScheduledFuture) {
+            WheelScheduledFuture<?> future = (WheelScheduledFuture<?>) timeout.task();
+            future.cancel(false);
+            return future;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 时间轮中的任务，到期后把自己交给 executor 执行
+     */
+    private class WheelScheduledFuture<V> extends FutureTask<V> implements RunnableScheduledFuture<V>, TimerTask {
+        /**
+         * 纳秒，0 是一次性任务，大于0是固定频率，小于0是固定延迟
+         */
+        private final long period;
+        /**
+         * 当前这一次在时间轮中的任务
+         */
+        private volatile Timeout timeout;
+        /**
+         * 执行时间（System.nanoTime() 的基准），timer 是池化模式拿不到 HashedWheelTimeout.deadline 时使用
+         */
+        private volatile long triggerTime;
+
+        WheelScheduledFuture(Callable<V> callable, long period) {
+            super(callable);
+            this.period = period;
+        }
+
+        /**
+         * 用 tryNewTimeout 添加：timer 满了时抛出 RejectedExecutionException，不会按 CALLER_RUNS 阻塞调用线程
+         */
+        void scheduleAfter(long delayNanos) {
+            triggerTime = System.nanoTime() + delayNanos;
+            Timeout timeout = timer.tryNewTimeout(this, delayNanos, TimeUnit.NANOSECONDS);
+            if (timeout == null) {
+                throw new RejectedExecutionException("timer is full");
+            }
+            this.timeout = timeout;
+            // newTimeout 期间被取消了
+            if (isCancelled()) {
+                timeout.cancel();
+            }
+        }
+
+        /**
+         * worker 线程调用：到期了，交给 executor
+         */
+        @Override
+        public void run(Timeout timeout) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                setException(e);
+            }
+        }
+
+        /**
+         * executor 调用
+         */
+        @Override
+        public void run() {
+            if (period == 0) {
+                super.run();
+            } else if (runAndReset()) {
+                if (shutdown) {
+                    // 和 ScheduledThreadPoolExecutor 一样，shutdown 之后周期任务不再执行，取消掉，否则 get 会一直阻塞
+                    cancel(false);
+                } else {
+                    scheduleNext();
+                }
+            }
+        }
+
+        private void scheduleNext() {
+            long now = System.nanoTime();
+            long next = period > 0 ? deadlineNanos() + period : now - period;
+            try {
+                scheduleAfter(Math.max(next - now, 0));
+            } catch (RejectedExecutionException e) {
+                // timer 满了，周期任务到此为止
+                setException(e);
+            } catch (RuntimeException e) {
+                // timer 已经停止
+                cancel(false);
+            }
+        }
+
+        /**
+         * 这一次的执行时间，优先用 HashedWheelTimeout.deadline
+         */
+        private long deadlineNanos() {
+            Timeout timeout = this.timeout;
+            if (timeout instanceof HashedWheelTimeout) {
+                return ((HashedWheelTimeout) timeout).deadline + timer.startTime;
+            }
+            return triggerTime;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadlineNanos() - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            if (other instanceof WheelScheduledFuture) {
+                return Long.compare(deadlineNanos(), ((WheelScheduledFuture<?>) other).deadlineNanos());
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Timeout timeout = this.timeout;
+            if (cancelled && timeout != null) {
+                timeout.cancel();
+            }
+            return cancelled;
+        }
+    }
+}
@@ -1,20 +1,37 @@
 package org.xiaohe.hashedwheel.timer;
 
+import com.xiaohe.recycle3.Recycler;
+import io.netty.util.concurrent.ImmediateExecutor;
 import io.netty.util.internal.ObjectUtil;
 import io.netty.util.internal.PlatformDependent;
 import org.xiaohe.hashedwheel.timeout.HashedWheelTimeout;
+import org.xiaohe.hashedwheel.timeout.PooledTimeout;
 import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timertask.BatchTimerTask;
+import org.xiaohe.hashedwheel.timertask.TaskResolver;
 import org.xiaohe.hashedwheel.timertask.TimerTask;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author : 小何
@@ -30,6 +47,10 @@ public class HashedWheelTimer implements Timer {
      * 状态被设置为已取消的任务
      */
     public Queue<HashedWheelTimeout> cancelledTimeouts = PlatformDependent.newMpscQueue();
+    /**
+     * 被 reset 提前了 deadline 的任务，需要 worker 挪到更早的 bucket 中
+     */
+    public final Queue<HashedWheelTimeout> rescheduledTimeouts = PlatformDependent.newMpscQueue();
 
     /**
      * timeout个数
@@ -37,6 +58,88 @@ public class HashedWheelTimer implements Timer {
     public final AtomicLong pendingTimeouts = new AtomicLong(0);
 
     private final long maxPendingTimeouts;
+    /**
+     * 任务数达到 maxPendingTimeouts 时的处理策略，可以随时修改
+     */
+    private volatile AdmissionPolicy admissionPolicy = AdmissionPolicy.REJECT;
+    /**
+     * BLOCK 策略下最多等多久
+     */
+    private volatile long admissionTimeoutNanos = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * BLOCK 策略下，等待名额时每隔多久检查一次。名额只会在 worker 处理 tick 时腾出来，不需要 worker 通知
+     */
+    private static final long MAX_ADMISSION_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    /**
+     * 空闲时不按 tickDuration 醒来，而是直接睡到下一个有任务的 bucket
+     */
+    private boolean tickless;
+    /**
+     * 高精度模式：worker 用 LockSupport.parkNanos 等待下一格，而不是按毫秒向上取整的 Thread.sleep，
+     * tickDuration 可以小于 1ms
+     */
+    private boolean highResolution;
+    /**
+     * 高精度模式下，离下一格不到这么多纳秒时不再 park，而是自旋等待。0 表示不自旋
+     */
+    private long spinThresholdNanos;
+    /**
+     * 精确模式：tickDuration 可以设得很粗，worker 在每一格开始时把这一格到期的任务放进 DeadlineHeap，
+     * 再按各自的 deadline 执行，而不是等到这一格结束时一起执行
+     */
+    private boolean precise;
+    /**
+     * 持久化日志，newDurableTimeout 和 restore 使用，为空时不持久化
+     */
+    private TimerJournal journal;
+    /**
+     * restore 从日志中读出来的任务，worker 启动后直接放进 bucket。
+     * restoredDeadlines 是对应任务的墙上时间（毫秒）
+     */
+    private HashedWheelTimeout[] restoredTimeouts;
+    private long[] restoredDeadlines;
+    /**
+     * 池化模式：HashedWheelTimeout 从对象池中获取，执行完或者取消之后放回去
+     */
+    private boolean pooled;
+    /**
+     * 取消任务的策略，默认 EAGER
+     */
+    private CancellationStrategy cancellationStrategy = CancellationStrategy.EAGER;
+    /**
+     * LAZY 策略下，墓碑数超过 pendingTimeouts 的这个比例时，整理所有 bucket
+     */
+    private double tombstoneRatio = 0.5;
+    /**
+     * 墓碑数少于这个值时不整理，任务很少时没必要
+     */
+    private static final long MIN_TOMBSTONES_TO_COMPACT = 1024;
+    /**
+     * LAZY 策略下已经取消但还留在时间轮中的任务个数，这些任务也算在 pendingTimeouts 里。
+     * 由取消任务的线程增加，用 LongAdder 避免竞争
+     */
+    public final LongAdder tombstones = new LongAdder();
+    /**
+     * 对象池每个线程最多缓存多少个 HashedWheelTimeout
+     */
+    private static final int POOL_CAPACITY_PER_THREAD = 32 * 1024;
+    /**
+     * 每个 worker、taskExecutor 线程最多帮多少个生产者线程回收对象
+     */
+    private static final int POOL_MAX_DELAYED_QUEUES_PER_THREAD = 64;
+    /**
+     * HashedWheelTimeout 的对象池，只有池化模式使用。
+     * 对象由生产者线程从自己的 Stack 中取出，却由 worker（或者 taskExecutor）线程回收，每一次回收都是跨线程的，要经过 WeakOrderQueue。
+     * 默认的参数下 WeakOrderQueue 只保留八分之一的对象，共享容量也只有 Stack 的一半，绝大部分对象都不会被复用，
+     * 所以这里 ratio 取 1（每个对象都回收），maxSharedCapacityFactor 取 1（其他线程可以帮生产者回收 Stack 容量那么多的对象）
+     */
+    private final Recycler<HashedWheelTimeout> timeoutRecycler = new Recycler<HashedWheelTimeout>(
+            POOL_CAPACITY_PER_THREAD, 1, 1, POOL_MAX_DELAYED_QUEUES_PER_THREAD) {
+        @Override
+        protected HashedWheelTimeout newObject(Handle<HashedWheelTimeout> handle) {
+            return new HashedWheelTimeout(HashedWheelTimer.this, handle);
+        }
+    };
     /**
      * startTime 只能初始化一次
      */
@@ -61,8 +164,33 @@ public class HashedWheelTimer implements Timer {
     public final long tickDuration;
     public final HashedWheelBucket[] wheel;
     public final int mask;
+    /**
+     * wheel.length = 2^wheelBits
+     */
+    public final int wheelBits;
+    /**
+     * 层级时间轮中，第0层之上的溢出轮。overflowWheels[0] 是第1层，每个刻度的时长 = tickDuration * wheel.length，以此类推。
+     * 单层时间轮时为空数组
+     */
+    public final HashedWheelBucket[][] overflowWheels;
     public final Worker worker = new Worker();
     public final Thread workerThread;
+    /**
+     * 执行到期任务的线程池，默认是 ImmediateExecutor，也就是在 worker 线程中直接执行
+     */
+    public final Executor taskExecutor;
+    /**
+     * 运行指标，由 worker 线程记录
+     */
+    public final HashedWheelTimerMetrics metrics = new HashedWheelTimerMetrics(this);
+    /**
+     * registerMBean 注册的名字，stop 时注销
+     */
+    private volatile ObjectName mbeanName;
+    /**
+     * transferTimeoutsToBuckets 每次 tick 最多转移的任务数
+     */
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
 
 
     /**
@@ -80,38 +208,732 @@ public class HashedWheelTimer implements Timer {
                             int ticksPerWheel,
                             boolean leakDetection,
                             long maxPendingTimeouts) {
+        this(threadFactory, tickDuration, unit, ticksPerWheel, leakDetection, maxPendingTimeouts, 1);
+    }
+
+    /**
+     *
+     * @param threadFactory
+     * @param tickDuration
+     * @param unit
+     * @param ticksPerWheel
+     * @param leakDetection
+     * @param maxPendingTimeouts
+     * @param taskExecutor 执行到期任务的线程池，worker 线程只负责找出到期的任务，交给它去执行
+     */
+    public HashedWheelTimer(ThreadFactory threadFactory,
+                            long tickDuration,
+                            TimeUnit unit,
+                            int ticksPerWheel,
+                            boolean leakDetection,
+                            long maxPendingTimeouts,
+                            Executor taskExecutor) {
+        this(threadFactory, tickDuration, unit, ticksPerWheel, leakDetection, maxPendingTimeouts, 1, taskExecutor);
+    }
+
+    /**
+     *
+     * @param threadFactory
+     * @param tickDuration
+     * @param unit
+     * @param ticksPerWheel
+     * @param leakDetection
+     * @param maxPendingTimeouts
+     * @param wheelLevels 时间轮的层数，默认1层，此时延迟较长的任务用 remainingRounds 记录圈数。
+     *                    大于1时开启层级时间轮，如 tickDuration = 100ms, ticksPerWheel = 512,
+     *                    第0层一圈 51.2s，第1层一个刻度 51.2s、一圈 7.3h，第2层一个刻度 7.3h。
+     *                    延迟较长的任务先放在高层，等高层的刻度到了再降级到低层，每一次 tick 只会碰到真正到期的任务
+     */
+    public HashedWheelTimer(ThreadFactory threadFactory,
+                            long tickDuration,
+                            TimeUnit unit,
+                            int ticksPerWheel,
+                            boolean leakDetection,
+                            long maxPendingTimeouts,
+                            int wheelLevels) {
+        this(threadFactory, tickDuration, unit, ticksPerWheel, leakDetection, maxPendingTimeouts, wheelLevels,
+                ImmediateExecutor.INSTANCE);
+    }
+
+    /**
+     *
+     * @param threadFactory
+     * @param tickDuration
+     * @param unit
+     * @param ticksPerWheel
+     * @param leakDetection
+     * @param maxPendingTimeouts
+     * @param wheelLevels
+     * @param taskExecutor 执行到期任务的线程池，可以使用 TaskExecutors.virtualThreadPerTask()
+     */
+    public HashedWheelTimer(ThreadFactory threadFactory,
+                            long tickDuration,
+                            TimeUnit unit,
+                            int ticksPerWheel,
+                            boolean leakDetection,
+                            long maxPendingTimeouts,
+                            int wheelLevels,
+                            Executor taskExecutor) {
         // 省略判断条件，都是一些判空啥的。
+        this.taskExecutor = ObjectUtil.checkNotNull(taskExecutor, "taskExecutor");
         wheel = createWheel(ticksPerWheel);
         mask = wheel.length - 1;
+        wheelBits = Integer.numberOfTrailingZeros(wheel.length);
+        overflowWheels = createOverflowWheels(wheel.length, wheelLevels);
         this.tickDuration = unit.toNanos(tickDuration);
         this.maxPendingTimeouts = maxPendingTimeouts;
         workerThread = threadFactory.newThread(worker);
     }
 
+    /**
+     * 满了按 admissionPolicy 处理，CALLER_RUNS 在这里按 REJECT 处理：
+     * delay、withDeadline、HashedWheelScheduledExecutor 这些适配器都建立在 newTimeout 上，不能让调用线程阻塞 delay 这么久
+     */
     @Override
     public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
-        // 判空代码不写了
-        long pendingTimeoutsCount = pendingTimeouts.incrementAndGet();
-        if (maxPendingTimeouts > 0 && pendingTimeoutsCount > maxPendingTimeouts) {
+        acquirePending(false);
+        return newTimeout0(task, newDeadline(delay, unit));
+    }
+
+    /**
+     * CALLER_RUNS 策略的入口，调用方明确知道自己可能被阻塞 delay 这么久时才使用：
+     * 满了并且 admissionPolicy 是 CALLER_RUNS 时，调用线程等到任务的执行时间，然后自己执行；其他情况和 newTimeout 一样
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public Timeout newTimeoutOrRunInCaller(TimerTask task, long delay, TimeUnit unit) {
+        if (!acquirePending(true)) {
+            return runInCaller(task, delay, unit);
+        }
+        return newTimeout0(task, newDeadline(delay, unit));
+    }
+
+    /**
+     * 和 newTimeout 一样，但是任务数达到 maxPendingTimeouts 时不抛异常、不阻塞，直接返回 null，不受 admissionPolicy 影响。
+     * 突发流量下生产者可以自己决定丢弃还是降级，不会产生大量异常
+     * @param task
+     * @param delay
+     * @param unit
+     * @return 满了返回 null
+     */
+    @Override
+    public Timeout tryNewTimeout(TimerTask task, long delay, TimeUnit unit) {
+        if (!tryAcquirePending()) {
+            metrics.recordRejected();
+            return null;
+        }
+        return newTimeout0(task, newDeadline(delay, unit));
+    }
+
+    /**
+     * 已经占到名额之后，创建任务放进 timeouts 队列
+     */
+    private Timeout newTimeout0(TimerTask task, long deadline) {
+        if (pooled) {
+            HashedWheelTimeout timeout = timeoutRecycler.get();
+            int generation = timeout.init(task, deadline);
+            enqueue(timeout);
+            return new PooledTimeout(timeout, task, generation);
+        }
+        HashedWheelTimeout timeout = new HashedWheelTimeout(this, task, deadline);
+        enqueue(timeout);
+        return timeout;
+    }
+
+    /**
+     * 添加一个持久化的一次性任务，添加、取消、执行都会写进 journal，重启之后可以用 restore 恢复。
+     * 持久化的任务不会被池化
+     * @param taskKey 恢复时交给 TaskResolver，用来重新创建 task
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    public Timeout newDurableTimeout(long taskKey, TimerTask task, long delay, TimeUnit unit) {
+        if (journal == null) {
+            throw new IllegalStateException("journal is not set");
+        }
+        acquirePending(false);
+        long deadline = newDeadline(delay, unit);
+        HashedWheelTimeout timeout = new HashedWheelTimeout(this, task, deadline);
+        try {
+            timeout.journalId = journal.recordScheduled(System.currentTimeMillis() + unit.toMillis(delay), taskKey);
+        } catch (RuntimeException e) {
+            // journal 写满了，还回名额
             pendingTimeouts.decrementAndGet();
-            throw new RejectedExecutionException();
+            throw e;
         }
+        timeout.journalTaskKey = taskKey;
+        enqueue(timeout);
+        return timeout;
+    }
+
+    /**
+     * 从 journal 中恢复上一次没有执行、也没有取消的任务，必须在 worker 线程启动之前调用。
+     * 不经过 newTimeout 和 timeouts 队列：这里只创建 HashedWheelTimeout，worker 启动时直接放进 bucket，
+     * 已经过期的任务在第一次 tick 执行。恢复的任务仍然记在 journal 中，取消、执行时照常写 REMOVED
+     * @param resolver 根据 taskKey 重新创建 task
+     * @return 恢复的任务，可以用来取消
+     */
+    public List<Timeout> restore(final TaskResolver resolver) {
+        checkNotStarted();
+        if (journal == null) {
+            throw new IllegalStateException("journal is not set");
+        }
+        final List<Timeout> restored = new ArrayList<>();
+        final long[][] deadlines = {new long[1024]};
+        journal.forEachLive(new TimerJournal.LiveRecordConsumer() {
+            @Override
+            public void accept(long id, long deadlineMillis, long taskKey) {
+                HashedWheelTimeout timeout = new HashedWheelTimeout(HashedWheelTimer.this,
+                        resolver.resolve(taskKey), 0);
+                timeout.journalId = id;
+                timeout.journalTaskKey = taskKey;
+                if (restored.size() == deadlines[0].length) {
+                    deadlines[0] = Arrays.copyOf(deadlines[0], deadlines[0].length << 1);
+                }
+                deadlines[0][restored.size()] = deadlineMillis;
+                restored.add(timeout);
+            }
+        });
+        pendingTimeouts.addAndGet(restored.size());
+        restoredTimeouts = restored.toArray(new HashedWheelTimeout[0]);
+        restoredDeadlines = deadlines[0];
+        return restored;
+    }
+
+    /**
+     * 固定延迟的周期任务：上一次执行完之后，再过 period 执行下一次。
+     * 周期任务一直使用同一个 HashedWheelTimeout，执行完由 worker 放回时间轮，不会被池化，isExpired 永远为 false
+     * @param task
+     * @param delay 第一次执行的延迟
+     * @param period
+     * @param unit
+     * @return
+     */
+    public Timeout schedule(TimerTask task, long delay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period 必须大于0");
+        }
+        return schedulePeriodic(task, delay, -unit.toNanos(period), unit, CatchUpPolicy.FIRE_ALL);
+    }
+
+    /**
+     * 固定频率的周期任务：第 n 次的执行时间是 第一次的执行时间 + n * period，错过了的全部补上
+     * @param task
+     * @param initialDelay
+     * @param period
+     * @param unit
+     * @return
+     */
+    public Timeout scheduleAtFixedRate(TimerTask task, long initialDelay, long period, TimeUnit unit) {
+        return scheduleAtFixedRate(task, initialDelay, period, unit, CatchUpPolicy.FIRE_ALL);
+    }
+
+    /**
+     * 固定频率的周期任务
+     * @param task
+     * @param initialDelay
+     * @param period
+     * @param unit
+     * @param catchUpPolicy 落后时怎么追上进度
+     * @return
+     */
+    public Timeout scheduleAtFixedRate(TimerTask task, long initialDelay, long period, TimeUnit unit,
+                                       CatchUpPolicy catchUpPolicy) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period 必须大于0");
+        }
+        return schedulePeriodic(task, initialDelay, unit.toNanos(period), unit,
+                ObjectUtil.checkNotNull(catchUpPolicy, "catchUpPolicy"));
+    }
+
+    /**
+     * @param period 纳秒，和 jdkTimer 一样：大于0是固定频率，小于0是固定延迟
+     */
+    private Timeout schedulePeriodic(TimerTask task, long delay, long period, TimeUnit unit, CatchUpPolicy catchUpPolicy) {
+        acquirePending(false);
+        long deadline = newDeadline(delay, unit);
+        HashedWheelTimeout timeout = new HashedWheelTimeout(this, task, deadline);
+        timeout.period = period;
+        timeout.catchUpPolicy = catchUpPolicy;
+        enqueue(timeout);
+        return timeout;
+    }
+
+    /**
+     * 按 admissionPolicy 占一个任务名额
+     * @param callerRunsAllowed 只有 newTimeoutOrRunInCaller 允许在调用线程中执行
+     * @return false 说明满了，admissionPolicy 是 CALLER_RUNS，应该由调用线程执行
+     */
+    private boolean acquirePending(boolean callerRunsAllowed) {
+        if (tryAcquirePending()) {
+            return true;
+        }
+        switch (admissionPolicy) {
+            case BLOCK:
+                if (awaitPending(admissionTimeoutNanos)) {
+                    return true;
+                }
+                break;
+            case CALLER_RUNS:
+                if (callerRunsAllowed) {
+                    return false;
+                }
+                break;
+            default:
+                break;
+        }
+        metrics.recordRejected();
+        throw new RejectedExecutionException("Number of pending timeouts reached maxPendingTimeouts ("
+                + maxPendingTimeouts + ")");
+    }
+
+    /**
+     * 有名额时才加一，不会像先加后减那样让 pendingTimeouts 短暂地超过上限
+     * @return
+     */
+    private boolean tryAcquirePending() {
+        if (maxPendingTimeouts <= 0) {
+            pendingTimeouts.incrementAndGet();
+            return true;
+        }
+        for (;;) {
+            long count = pendingTimeouts.get();
+            if (count >= maxPendingTimeouts) {
+                return false;
+            }
+            if (pendingTimeouts.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * BLOCK 策略：每隔一小段时间重试一次，直到占到名额或者超时
+     * @param timeoutNanos
+     * @return 超时或者被中断时返回 false，中断状态会保留
+     */
+    private boolean awaitPending(long timeoutNanos) {
+        start();
+        final long pollNanos = Math.min(tickDuration, MAX_ADMISSION_POLL_NANOS);
+        final long deadline = System.nanoTime() + timeoutNanos;
+        for (;;) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, pollNanos));
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            if (tryAcquirePending()) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * CALLER_RUNS 策略：调用线程等到任务的执行时间，然后自己执行。
+     * 返回的 Timeout 已经是 EXPIRED 状态，调用线程被中断时任务不执行，返回的 Timeout 是 CANCELLED 状态
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    private Timeout runInCaller(TimerTask task, long delay, TimeUnit unit) {
+        metrics.recordCallerRuns();
+        start();
+        final long deadline = System.nanoTime() + unit.toNanos(delay);
+        HashedWheelTimeout timeout = new HashedWheelTimeout(this, task, deadline - startTime);
+        for (;;) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                timeout.compareAndSetState(HashedWheelTimeout.ST_INIT, HashedWheelTimeout.ST_CANCELLED);
+                return timeout;
+            }
+        }
+        timeout.compareAndSetState(HashedWheelTimeout.ST_INIT, HashedWheelTimeout.ST_EXPIRED);
+        try {
+            task.run(timeout);
+        } catch (Throwable t) {
+            new RuntimeException("An exception was thrown by " + TimerTask.class.getSimpleName() + ".", t)
+                    .printStackTrace();
+        }
+        return timeout;
+    }
+
+    /**
+     * 启动 worker 线程，计算任务的执行时间，调用前已经占了一个任务名额
+     * @param delay
+     * @param unit
+     * @return 相对于 startTime 的执行时间
+     */
+    private long newDeadline(long delay, TimeUnit unit) {
         start();
         long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
         // 说明这个任务的执行时间已经过去
         if (delay > 0 && deadline < 0) {
             deadline = Long.MAX_VALUE;
         }
-        HashedWheelTimeout timeout = new HashedWheelTimeout(this, task, deadline);
+        return deadline;
+    }
+
+    /**
+     * 周期任务执行完之后调用：计算下一次的执行时间，把同一个 HashedWheelTimeout 放回时间轮。
+     * 在 worker 线程中执行的（ImmediateExecutor）直接放进 bucket，否则放进 timeouts 队列
+     * @param timeout
+     */
+    public void reschedule(HashedWheelTimeout timeout) {
+        if (!timeout.compareAndSetState(HashedWheelTimeout.ST_INIT, HashedWheelTimeout.ST_LOCKED)) {
+            // 执行期间被取消了，它不在时间轮中，LAZY 策略下没有人会清理它的墓碑
+            if (timeout.isCancelled()) {
+                releaseCancelled(timeout);
+            }
+            return;
+        }
+        final long currentTime = System.nanoTime() - startTime;
+        final long period = timeout.period;
+        long next;
+        if (period < 0) {
+            // 固定延迟：从现在开始计时
+            next = currentTime - period;
+        } else {
+            // 固定频率：从上一次计划的执行时间开始计时
+            next = timeout.deadline + period;
+            if (next <= currentTime) {
+                // 包括 next 在内，已经有 behind 次该执行了
+                long behind = (currentTime - next) / period + 1;
+                switch (timeout.catchUpPolicy) {
+                    case COALESCE:
+                        next += (behind - 1) * period;
+                        timeout.missedExecutions += behind - 1;
+                        break;
+                    case SKIP:
+                        next += behind * period;
+                        timeout.missedExecutions += behind;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        timeout.deadline = next;
+        timeout.unlock(HashedWheelTimeout.ST_INIT);
+        if (Thread.currentThread() == workerThread) {
+            worker.placeTimeout(timeout);
+        } else {
+            enqueue(timeout);
+        }
+    }
+
+    private void enqueue(HashedWheelTimeout timeout) {
         timeouts.add(timeout);
-        return timeout;
+        wakeUpWorker(timeout.deadline);
+    }
+
+    /**
+     * tickless 或者精确模式下，worker 正在睡觉，并且 deadline 比它要醒来的时间还早，叫醒它
+     * @param deadline
+     */
+    public void wakeUpWorker(long deadline) {
+        if ((tickless || precise) && deadline < worker.parkDeadline) {
+            LockSupport.unpark(workerThread);
+        }
     }
 
+    /**
+     * 停止 worker 线程，返回还没有执行、也没有取消的任务
+     * @return
+     */
     @Override
     public Set<Timeout> stop() {
-        return null;
+        // worker 线程自己调用 stop，join 自己会永远等下去
+        if (Thread.currentThread() == workerThread) {
+            throw new IllegalStateException(
+                    HashedWheelTimer.class.getSimpleName() + ".stop() cannot be called from " +
+                            TimerTask.class.getSimpleName());
+        }
+        if (!WORKER_STATE_UPDATER.compareAndSet(this, WORKER_STATE_STARTED, WORKER_STATE_SHUTDOWN)) {
+            // 还没启动或者已经停止了，都置为 SHUTDOWN
+            WORKER_STATE_UPDATER.getAndSet(this, WORKER_STATE_SHUTDOWN);
+            return Collections.emptySet();
+        }
+        boolean interrupted = false;
+        // 打断 worker 线程的睡眠，等它把剩下的任务收集到 unprocessedTimeouts 中
+        while (workerThread.isAlive()) {
+            workerThread.interrupt();
+            try {
+                workerThread.join(100);
+            } catch (InterruptedException ignored) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        unregisterMBean();
+        return Collections.unmodifiableSet(worker.unprocessedTimeouts);
+    }
+
+
+    /**
+     * 把 metrics 注册到 platform MBeanServer，stop 时自动注销
+     * @param name ObjectName 中的 name，多个时间轮用来区分
+     */
+    public void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("org.xiaohe.hashedwheel:type=HashedWheelTimer,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+            mbeanName = objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("failed to register MBean: " + name, e);
+        }
+    }
+
+    public void unregisterMBean() {
+        ObjectName objectName = mbeanName;
+        if (objectName == null) {
+            return;
+        }
+        mbeanName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 开启或关闭 tickless 模式，必须在第一次 newTimeout 之前调用。
+     * 开启后 worker 线程会计算下一个不为空的 bucket 的时间，一直睡到那个时候，
+     * 中间如果来了更早的任务，newTimeout 会把它叫醒
+     * @param tickless
+     */
+    public void setTickless(boolean tickless) {
+        checkNotStarted();
+        this.tickless = tickless;
+    }
+
+    public boolean isTickless() {
+        return tickless;
+    }
+
+    /**
+     * 开启或关闭高精度模式，必须在第一次 newTimeout 之前调用。
+     * 默认的 Thread.sleep 按毫秒向上取整，tickDuration 小于 1ms 时没有意义，每个任务还会多出最多 1ms 的抖动；
+     * 高精度模式用 parkNanos 睡到下一格，精度取决于操作系统（Linux 上一般是几十微秒）
+     * @param highResolution
+     */
+    public void setHighResolution(boolean highResolution) {
+        checkNotStarted();
+        this.highResolution = highResolution;
+    }
+
+    public boolean isHighResolution() {
+        return highResolution;
+    }
+
+    /**
+     * 高精度模式下先 park，离下一格不到 spinThreshold 时改为自旋，消除 park 醒来的延迟，代价是这段时间占满一个 CPU。
+     * 必须在第一次 newTimeout 之前调用，非高精度模式下不生效
+     * @param spinThreshold 0 表示不自旋
+     * @param unit
+     */
+    public void setSpinThreshold(long spinThreshold, TimeUnit unit) {
+        checkNotStarted();
+        if (spinThreshold < 0) {
+            throw new IllegalArgumentException("spinThreshold 不能小于0: " + spinThreshold);
+        }
+        this.spinThresholdNanos = unit.toNanos(spinThreshold);
+    }
+
+    public long getSpinThresholdNanos() {
+        return spinThresholdNanos;
+    }
+
+    /**
+     * 开启或关闭精确模式，必须在第一次 newTimeout 之前调用。
+     * 默认模式下一格里的任务在这一格结束时一起执行，误差最多一个 tickDuration；
+     * 精确模式下插入仍然是 O(1)，只有当前这一格的任务进入小根堆，按各自的 deadline 执行。
+     * worker 总是用 parkNanos 等待，tickless 和高精度模式的设置不生效
+     * @param precise
+     */
+    public void setPrecise(boolean precise) {
+        checkNotStarted();
+        this.precise = precise;
+    }
+
+    public boolean isPrecise() {
+        return precise;
+    }
+
+    /**
+     * 开启或关闭池化模式，必须在第一次 newTimeout 之前调用。
+     * 开启后 newTimeout 返回 PooledTimeout，TimerTask.run 中拿到的 Timeout 只在 run 执行期间有效。
+     * 池化并不是零分配：每次 newTimeout 仍然要创建一个 PooledTimeout（记住代数，防止用户拿着过期的引用取消掉复用之后的任务），
+     * 只是把每个任务的分配从 HashedWheelTimeout 缩小到这个很小的包装对象，见 PooledAllocationBenchmark
+     * @param pooled
+     */
+    public void setPooled(boolean pooled) {
+        checkNotStarted();
+        this.pooled = pooled;
+    }
+
+    public boolean isPooled() {
+        return pooled;
+    }
+
+    /**
+     * 设置取消任务的策略，必须在第一次 newTimeout 之前调用
+     * @param cancellationStrategy
+     */
+    public void setCancellationStrategy(CancellationStrategy cancellationStrategy) {
+        checkNotStarted();
+        this.cancellationStrategy = ObjectUtil.checkNotNull(cancellationStrategy, "cancellationStrategy");
+    }
+
+    public CancellationStrategy getCancellationStrategy() {
+        return cancellationStrategy;
+    }
+
+    /**
+     * LAZY 策略下，墓碑数超过 pendingTimeouts 的多少比例时整理所有 bucket，默认 0.5
+     * @param tombstoneRatio
+     */
+    public void setTombstoneRatio(double tombstoneRatio) {
+        checkNotStarted();
+        if (!(tombstoneRatio > 0 && tombstoneRatio <= 1)) {
+            throw new IllegalArgumentException("tombstoneRatio must be in (0, 1]: " + tombstoneRatio);
+        }
+        this.tombstoneRatio = tombstoneRatio;
+    }
+
+    /**
+     * 任务的状态已经改为取消之后调用
+     * @param timeout
+     */
+    public void onCancel(HashedWheelTimeout timeout) {
+        if (timeout.journalId != 0) {
+            journal.recordRemoved(timeout.journalId);
+        }
+        if (cancellationStrategy == CancellationStrategy.LAZY) {
+            tombstones.increment();
+        } else {
+            cancelledTimeouts.add(timeout);
+        }
+    }
+
+    /**
+     * worker 线程把一个已取消的任务从时间轮中摘下来之后调用。
+     * EAGER : 它还在 cancelledTimeouts 中，processCancelledTasks 会将 pendingTimeouts 减一并回收，这里什么都不做
+     * LAZY : 没有别人再引用它了，这里负责减一和回收
+     * @param timeout
+     */
+    public void releaseCancelled(HashedWheelTimeout timeout) {
+        if (cancellationStrategy == CancellationStrategy.LAZY) {
+            pendingTimeouts.decrementAndGet();
+            tombstones.decrement();
+            timeout.recycle();
+        }
+    }
+
+    /**
+     * 持久化的任务被 reset 时调用，状态是 ST_LOCKED：用新的 id 和新的 deadline 写一条 SCHEDULED，再把旧的 id 记为 REMOVED。
+     * 先写新记录，两条之间崩溃的话重启后任务会执行两次，而不是丢掉
+     * @param timeout
+     * @param delay
+     * @param unit
+     */
+    public void onReset(HashedWheelTimeout timeout, long delay, TimeUnit unit) {
+        long oldId = timeout.journalId;
+        timeout.journalId = journal.recordScheduled(System.currentTimeMillis() + unit.toMillis(delay),
+                timeout.journalTaskKey);
+        journal.recordRemoved(oldId);
+    }
+
+    /**
+     * 任务开始执行，持久化的任务在 journal 中记一条 REMOVED
+     * @param timeout
+     */
+    public void onExpire(HashedWheelTimeout timeout) {
+        if (timeout.journalId != 0) {
+            journal.recordRemoved(timeout.journalId);
+        }
+    }
+
+    /**
+     * 设置持久化日志，必须在 worker 线程启动之前调用。timer 不负责关闭它
+     * @param journal
+     */
+    public void setJournal(TimerJournal journal) {
+        checkNotStarted();
+        this.journal = journal;
     }
 
+    public TimerJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * 设置任务数达到 maxPendingTimeouts 时的处理策略，可以随时修改，maxPendingTimeouts 不大于0时不生效
+     * @param admissionPolicy
+     */
+    public void setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        this.admissionPolicy = ObjectUtil.checkNotNull(admissionPolicy, "admissionPolicy");
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * BLOCK 策略下最多等多久，默认 1s
+     * @param admissionTimeout
+     * @param unit
+     */
+    public void setAdmissionTimeout(long admissionTimeout, TimeUnit unit) {
+        if (admissionTimeout < 0) {
+            throw new IllegalArgumentException("admissionTimeout 不能小于0: " + admissionTimeout);
+        }
+        this.admissionTimeoutNanos = unit.toNanos(admissionTimeout);
+    }
+
+    public long getAdmissionTimeoutNanos() {
+        return admissionTimeoutNanos;
+    }
+
+    public long getMaxPendingTimeouts() {
+        return maxPendingTimeouts;
+    }
+
+    /**
+     * 当前的准入压力 = pendingTimeouts / maxPendingTimeouts，生产者可以在接近 1 之前就开始限流。
+     * maxPendingTimeouts 不大于0（不限制）时永远是 0
+     * @return
+     */
+    public double admissionPressure() {
+        if (maxPendingTimeouts <= 0) {
+            return 0;
+        }
+        return (double) pendingTimeouts.get() / maxPendingTimeouts;
+    }
+
+    /**
+     * 有些配置只能在 worker 线程启动之前修改
+     */
+    private void checkNotStarted() {
+        if (WORKER_STATE_UPDATER.get(this) != WORKER_STATE_INIT) {
+            throw new IllegalStateException("cannot be changed after the worker thread is started");
+        }
+    }
 
     /**
      * 启动工作线程
@@ -159,6 +981,33 @@ public class HashedWheelTimer implements Timer {
         return wheel;
     }
 
+    /**
+     * 创建第 1 ~ wheelLevels-1 层的溢出轮，每一层的刻度数和第0层一样
+     * @param ticksPerWheel 第0层的刻度数，已经是 2^n
+     * @param wheelLevels
+     * @return
+     */
+    public static HashedWheelBucket[][] createOverflowWheels(int ticksPerWheel, int wheelLevels) {
+        if (wheelLevels <= 0) {
+            throw new IllegalArgumentException(
+                    "wheelLevels must be greater than 0: " + wheelLevels);
+        }
+        if (wheelLevels > 1 && ticksPerWheel < 2) {
+            throw new IllegalArgumentException(
+                    "ticksPerWheel must be greater than 1 when wheelLevels > 1: " + ticksPerWheel);
+        }
+        // 最高层的刻度是 2^(wheelBits * (wheelLevels - 1)) 个 tick，不能超出 long 的范围
+        if (Integer.numberOfTrailingZeros(ticksPerWheel) * (wheelLevels - 1) >= 63) {
+            throw new IllegalArgumentException(
+                    "wheelLevels is too large for ticksPerWheel " + ticksPerWheel + ": " + wheelLevels);
+        }
+        HashedWheelBucket[][] overflowWheels = new HashedWheelBucket[wheelLevels - 1][];
+        for (int i = 0; i < overflowWheels.length; i++) {
+            overflowWheels[i] = createWheel(ticksPerWheel);
+        }
+        return overflowWheels;
+    }
+
     private static int normalizedTicksPerWheel(int ticksPerWheel) {
         int normalizedTicksPerWheel = 1;
         while (normalizedTicksPerWheel < ticksPerWheel) {
@@ -183,6 +1032,19 @@ public class HashedWheelTimer implements Timer {
          * 指针移动次数
          */
         public long tick;
+        /**
+         * tickless 模式下 worker 正在等待的 bucket 的开始时间，deadline 比它小的新任务需要唤醒 worker。
+         * worker 没有在睡觉时为 0
+         */
+        public volatile long parkDeadline;
+        /**
+         * 精确模式下，当前这一格中到期时间还没到的任务
+         */
+        public final DeadlineHeap dueTimeouts = new DeadlineHeap();
+        /**
+         * 这一次 tick 中到期的 BatchTimerTask 任务，按 task 实例分组
+         */
+        private final Map<BatchTimerTask, ExpiredBatch> batches = new IdentityHashMap<>();
         @Override
         public void run() {
             // 给 starterTime 赋值
@@ -192,22 +1054,20 @@ public class HashedWheelTimer implements Timer {
             }
             // 通知
             startTimeInitialized.countDown();
+            placeRestoredTimeouts();
 
             // 如果worker线程的状态一直是 started，就一直循环
             do {
+                if (precise) {
+                    processPreciseTick();
+                    continue;
+                }
                 // 一般情况下，deadline >= tickDuration
                 final long deadline = waitForNextTick();
                 if (deadline > 0) {
-                    // 获取此时所处的轮子，也就是第一个轮子。
-                    int idx = (int) (tick & mask);
-                    // 删除取消的任务
-                    processCancelledTasks();
-                    HashedWheelBucket bucket = wheel[idx];
-                    // 将timeouts转移到buckets中
-                    transferTimeoutsToBuckets();
-                    bucket.expireTimeouts(deadline);
-                    // 走一步
-                    tick++;
+                    // tickless 模式下 waitForNextTick 已经把 tick 挪到了要处理的那一格
+                    metrics.recordTickLag(deadline - tickDuration * (tick + 1));
+                    processTick(deadline);
                 }
             } while (WORKER_STATE_UPDATER.get(HashedWheelTimer.this) == WORKER_STATE_STARTED);
 
@@ -215,6 +1075,12 @@ public class HashedWheelTimer implements Timer {
             for (HashedWheelBucket bucket : wheel) {
                 bucket.clearTimeouts(unprocessedTimeouts);
             }
+            for (HashedWheelBucket[] overflowWheel : overflowWheels) {
+                for (HashedWheelBucket bucket : overflowWheel) {
+                    bucket.clearTimeouts(unprocessedTimeouts);
+                }
+            }
+            dueTimeouts.clearTimeouts(unprocessedTimeouts);
             for (;;) {
                 HashedWheelTimeout timeout = timeouts.poll();
                 if (timeout == null) {
@@ -227,7 +1093,203 @@ public class HashedWheelTimer implements Timer {
             processCancelledTasks();
         }
 
+        /**
+         * 把 restore 恢复的任务直接放进 bucket，墙上时间换算成相对 startTime 的时间
+         */
+        public void placeRestoredTimeouts() {
+            HashedWheelTimeout[] restored = restoredTimeouts;
+            if (restored == null) {
+                return;
+            }
+            final long nowMillis = System.currentTimeMillis();
+            final long currentTime = System.nanoTime() - startTime;
+            for (int i = 0; i < restored.length; i++) {
+                HashedWheelTimeout timeout = restored[i];
+                long remaining = Math.max(restoredDeadlines[i] - nowMillis, 0);
+                timeout.deadline = currentTime + TimeUnit.MILLISECONDS.toNanos(remaining);
+                if (timeout.state() == HashedWheelTimeout.ST_CANCELLED) {
+                    // 启动之前就被取消了
+                    if (cancellationStrategy == CancellationStrategy.LAZY) {
+                        releaseCancelled(timeout);
+                    }
+                    continue;
+                }
+                placeTimeout(timeout);
+            }
+            restoredTimeouts = null;
+            restoredDeadlines = null;
+        }
+
+        /**
+         * 时间轮走一格
+         * @param deadline waitForNextTick 的返回值，执行时间在 deadline 之前的任务都会被执行
+         */
+        public void processTick(long deadline) {
+            // 获取此时所处的轮子，也就是第一个轮子。
+            int idx = (int) (tick & mask);
+            // 删除取消的任务
+            processCancelledTasks();
+            HashedWheelBucket bucket = wheel[idx];
+            // 将timeouts转移到buckets中
+            transferTimeoutsToBuckets();
+            // 被 reset 提前的任务挪到新的 bucket 中
+            processRescheduledTimeouts();
+            // 层级时间轮：高层的刻度到了，把里面的任务降到低层
+            cascadeOverflowWheels();
+            // LAZY 取消策略：墓碑太多时整理所有 bucket
+            compactIfNeeded();
+            long expireStart = System.nanoTime();
+            int expired = bucket.expireTimeouts(deadline);
+            // 走一步
+            tick++;
+            // 先走一步再执行批量任务，在 worker 线程中执行的周期任务才会放进下一格，而不是已经处理完的这一格
+            flushBatches();
+            metrics.recordExpire(expired, System.nanoTime() - expireStart);
+        }
+
+        /**
+         * expire 遇到 BatchTimerTask 时调用，状态已经是 EXPIRED（周期任务是 INIT）
+         * @param timeout
+         */
+        public void addToBatch(HashedWheelTimeout timeout) {
+            BatchTimerTask task = (BatchTimerTask) timeout.task;
+            ExpiredBatch batch = batches.get(task);
+            if (batch == null) {
+                batch = new ExpiredBatch(task);
+                batches.put(task, batch);
+            }
+            batch.timeouts.add(timeout);
+        }
+
+        /**
+         * 把攒起来的批量任务交给 taskExecutor，每个 BatchTimerTask 实例只执行一次
+         */
+        public void flushBatches() {
+            if (batches.isEmpty()) {
+                return;
+            }
+            for (ExpiredBatch batch : batches.values()) {
+                try {
+                    taskExecutor.execute(batch);
+                } catch (Throwable t) {
+                    new RuntimeException("An exception was thrown while submit " + ExpiredBatch.class.getSimpleName()
+                            + " for execution.", t).printStackTrace();
+                    batch.finish();
+                }
+            }
+            batches.clear();
+        }
+
+        /**
+         * 精确模式下时间轮走一格：这一格开始时把到期的任务放进 dueTimeouts，
+         * 然后一直到这一格结束，每个任务的 deadline 到了就执行它。
+         * 等待期间来了更早的任务，newTimeout 会通过 parkDeadline 叫醒 worker
+         */
+        public void processPreciseTick() {
+            final long tickStart = tickDuration * tick;
+            final long tickEnd = tickStart + tickDuration;
+            metrics.recordTickLag(System.nanoTime() - startTime - tickStart);
+            processCancelledTasks();
+            transferTimeoutsToBuckets();
+            processRescheduledTimeouts();
+            cascadeOverflowWheels();
+            compactIfNeeded();
+            wheel[(int) (tick & mask)].drainDueTimeouts(tickEnd, this);
+            // 先走一步，这一格之后再来的、这一格内到期的任务由 placeTimeout 直接放进 dueTimeouts
+            tick++;
+
+            int expired = 0;
+            long expireNanos = 0;
+            for (;;) {
+                final long currentTime = System.nanoTime() - startTime;
+                if (!dueTimeouts.isEmpty() && dueTimeouts.peekDeadline() <= currentTime) {
+                    long expireStart = System.nanoTime();
+                    expired += expireDueTimeouts(currentTime);
+                    flushBatches();
+                    expireNanos += System.nanoTime() - expireStart;
+                }
+                if (currentTime >= tickEnd) {
+                    break;
+                }
+                long wakeUpTime = dueTimeouts.isEmpty() ? tickEnd : Math.min(dueTimeouts.peekDeadline(), tickEnd);
+                // 和 tickless 一样，先告诉生产者 worker 要睡到什么时候，再检查队列
+                parkDeadline = wakeUpTime;
+                if (timeouts.isEmpty() && rescheduledTimeouts.isEmpty()) {
+                    LockSupport.parkNanos(this, wakeUpTime - currentTime);
+                }
+                parkDeadline = 0;
+                Thread.interrupted();
+                if (WORKER_STATE_UPDATER.get(HashedWheelTimer.this) == WORKER_STATE_SHUTDOWN) {
+                    return;
+                }
+                processCancelledTasks();
+                transferTimeoutsToBuckets();
+                processRescheduledTimeouts();
+            }
+            metrics.recordExpire(expired, expireNanos);
+        }
+
+        /**
+         * 执行 dueTimeouts 中 deadline 在 currentTime 之前的任务
+         * @param currentTime
+         * @return 执行了多少个任务
+         */
+        public int expireDueTimeouts(long currentTime) {
+            int expired = 0;
+            while (!dueTimeouts.isEmpty() && dueTimeouts.peekDeadline() <= currentTime) {
+                HashedWheelTimeout timeout = dueTimeouts.poll();
+                timeout.queued = false;
+                if (!timeout.lockForExpire()) {
+                    // 已经取消了
+                    discardCancelled(timeout);
+                    continue;
+                }
+                if (timeout.deadline > currentTime) {
+                    // 被 reset 推迟了
+                    timeout.unlock(HashedWheelTimeout.ST_INIT);
+                    placeTimeout(timeout);
+                    continue;
+                }
+                if (timeout.period == 0) {
+                    pendingTimeouts.decrementAndGet();
+                }
+                timeout.expire();
+                expired++;
+            }
+            return expired;
+        }
+
+        /**
+         * 精确模式：把这一格内到期的任务放进 dueTimeouts。
+         * 池化模式下借用 queued 标记它还在 worker 手里，processCancelledTasks 不会提前回收它
+         * @param timeout
+         */
+        public void addDueTimeout(HashedWheelTimeout timeout) {
+            timeout.queued = true;
+            dueTimeouts.add(timeout);
+        }
+
+        /**
+         * 从 timeouts 队列或者 dueTimeouts 中取出了一个已取消的任务
+         * @param timeout
+         */
+        private void discardCancelled(HashedWheelTimeout timeout) {
+            if (cancellationStrategy == CancellationStrategy.LAZY) {
+                // 还没进入时间轮就被取消了，直接丢掉
+                releaseCancelled(timeout);
+            } else if (timeout.cancelProcessed) {
+                // processCancelledTasks 已经处理过了，由这里回收
+                timeout.recycle();
+            }
+        }
+
         public long waitForNextTick() {
+            if (tickless) {
+                return waitForNextBusyTick();
+            }
+            if (highResolution) {
+                return waitForNextTickNanos();
+            }
             // 刚开始的时候 tick = 0, tickDuration = 100ms
             // 所以 deadline = 100ms
             // 下一次调用这个方法，deadline 就会变成 200ms、300ms、400ms...
@@ -266,6 +1328,99 @@ public class HashedWheelTimer implements Timer {
             }
         }
 
+        /**
+         * 高精度模式：和 waitForNextTick 一样等到这一格结束，但是用 parkNanos，最后 spinThresholdNanos 自旋
+         * @return 当前时间
+         */
+        public long waitForNextTickNanos() {
+            final long deadline = tickDuration * (tick + 1);
+            for (;;) {
+                final long currentTime = System.nanoTime() - startTime;
+                final long remaining = deadline - currentTime;
+                if (remaining <= 0) {
+                    return currentTime == Long.MIN_VALUE ? -Long.MAX_VALUE : currentTime;
+                }
+                if (remaining <= spinThresholdNanos) {
+                    // 剩下的时间太短，park 醒来的延迟比它还长，自旋
+                    continue;
+                }
+                LockSupport.parkNanos(this, remaining - spinThresholdNanos);
+                if (Thread.interrupted()
+                        && WORKER_STATE_UPDATER.get(HashedWheelTimer.this) == WORKER_STATE_SHUTDOWN) {
+                    return Long.MIN_VALUE;
+                }
+            }
+        }
+
+        /**
+         * tickless 模式：跳过空的 bucket，直接睡到下一个有任务的 tick。
+         * 跳过的 tick 中没有任何任务，所以直接修改 tick 就行，remainingRounds 和层级时间轮的降级都不受影响
+         * @return 和 waitForNextTick 一样，返回当前时间
+         */
+        public long waitForNextBusyTick() {
+            for (;;) {
+                final long target = nextBusyTick();
+                final long targetStart = target >= Long.MAX_VALUE / tickDuration ? Long.MAX_VALUE : target * tickDuration;
+                final long deadline = targetStart > Long.MAX_VALUE - tickDuration ? Long.MAX_VALUE : targetStart + tickDuration;
+                // 先告诉生产者 worker 要睡到什么时候，再检查队列，这样新任务要么被这里看到，要么生产者会 unpark
+                parkDeadline = targetStart;
+                if (timeouts.isEmpty() && rescheduledTimeouts.isEmpty()) {
+                    final long currentTime = System.nanoTime() - startTime;
+                    if (currentTime >= deadline) {
+                        parkDeadline = 0;
+                        tick = target;
+                        return currentTime;
+                    }
+                    LockSupport.parkNanos(this, deadline - currentTime);
+                }
+                parkDeadline = 0;
+                if (WORKER_STATE_UPDATER.get(HashedWheelTimer.this) == WORKER_STATE_SHUTDOWN) {
+                    return Long.MIN_VALUE;
+                }
+                // 清除 interrupt 标志，否则 parkNanos 会一直立刻返回
+                Thread.interrupted();
+                final long currentTime = System.nanoTime() - startTime;
+                if (currentTime >= deadline) {
+                    tick = target;
+                    return currentTime;
+                }
+                // 被新任务提前叫醒了。currentTime 之前的 tick 都是空的，直接跳过，再按照新的 tick 放置新任务
+                tick = Math.max(tick, Math.min(currentTime / tickDuration, target));
+                transferTimeoutsToBuckets();
+                processRescheduledTimeouts();
+            }
+        }
+
+        /**
+         * 从 tick 开始，找到下一个需要处理的 tick：第0层不为空的 bucket，或者层级时间轮中不为空的高层刻度的起点
+         * @return 没有任何任务时返回 Long.MAX_VALUE
+         */
+        public long nextBusyTick() {
+            long next = Long.MAX_VALUE;
+            for (int i = 0; i < wheel.length; i++) {
+                if (wheel[(int) ((tick + i) & mask)].head != null) {
+                    next = tick + i;
+                    break;
+                }
+            }
+            for (int level = 1; level <= overflowWheels.length; level++) {
+                int shift = wheelBits * level;
+                // 第一个 >= tick 的刻度起点
+                long first = (tick >>> shift) + ((tick & ((1L << shift) - 1)) == 0 ? 0 : 1);
+                for (int i = 0; i < wheel.length; i++) {
+                    long slot = first + i;
+                    if (slot > (Long.MAX_VALUE >>> shift) || (slot << shift) >= next) {
+                        break;
+                    }
+                    if (overflowWheels[level - 1][(int) (slot & mask)].head != null) {
+                        next = slot << shift;
+                        break;
+                    }
+                }
+            }
+            return next;
+        }
+
         /**
          * 将 cancelledTimeouts 中的任务删除
          */
@@ -280,24 +1435,99 @@ public class HashedWheelTimer implements Timer {
                 } catch (Throwable t) {
                     t.printStackTrace();
                 }
+                if (timeout.isPooled()) {
+                    // 还在 timeouts 队列中的，等 transferTimeoutsToBuckets 取出来之后再回收
+                    if (timeout.queued) {
+                        timeout.cancelProcessed = true;
+                    } else {
+                        timeout.recycle();
+                    }
+                }
+            }
+        }
+        /**
+         * LAZY 取消策略下，墓碑数超过 pendingTimeouts * tombstoneRatio 时，删除所有 bucket 中的墓碑。
+         * 整理一次的代价是 O(pendingTimeouts)，但两次整理之间至少取消了 tombstoneRatio * pendingTimeouts 个任务，平摊下来是 O(1)
+         */
+        public void compactIfNeeded() {
+            if (cancellationStrategy != CancellationStrategy.LAZY) {
+                return;
+            }
+            long tombstoneCount = tombstones.sum();
+            if (tombstoneCount < MIN_TOMBSTONES_TO_COMPACT || tombstoneCount < pendingTimeouts.get() * tombstoneRatio) {
+                return;
+            }
+            for (HashedWheelBucket bucket : wheel) {
+                bucket.compact();
+            }
+            for (HashedWheelBucket[] overflowWheel : overflowWheels) {
+                for (HashedWheelBucket bucket : overflowWheel) {
+                    bucket.compact();
+                }
             }
         }
+
+        /**
+         * 将被 reset 提前的任务挪到新的 bucket 中。
+         * 精确模式下 dueTimeouts 中的任务入堆时复制了旧的 deadline，要删掉再按新的 deadline 重新入堆，否则最多晚一个 tickDuration。
+         * 其他不在 bucket 中的任务要么还在 timeouts 队列里（转移时会用新的 deadline），要么已经执行或取消了，都不用管
+         */
+        public void processRescheduledTimeouts() {
+            for (;;) {
+                HashedWheelTimeout timeout = rescheduledTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                HashedWheelBucket bucket = timeout.bucket;
+                if (timeout.state() != HashedWheelTimeout.ST_INIT) {
+                    continue;
+                }
+                if (bucket != null) {
+                    bucket.unlink(timeout);
+                    placeTimeout(timeout);
+                } else if (precise && timeout.queued && dueTimeouts.remove(timeout)) {
+                    addDueTimeout(timeout);
+                }
+            }
+        }
+
         public void transferTimeoutsToBuckets() {
             // 一次最多转移 100000 个任务
-            for (int i = 0; i < 100000; i++) {
+            for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
                 HashedWheelTimeout timeout = timeouts.poll();
                 // 由于执行这个方法前已经执行过 processCancelledTasks，所以现在肯定不会出现任务为空或者任务状态未取消的情况
                 if (timeout == null) {
-                    break;
+                    metrics.recordTransferBacklog(0);
+                    return;
                 }
+                timeout.queued = false;
                 if (timeout.state() == HashedWheelTimeout.ST_CANCELLED) {
-                    break;
+                    discardCancelled(timeout);
+                    // 取消的任务不影响后面的任务转移
+                    continue;
                 }
+                placeTimeout(timeout);
+            }
+            // 碰到了上限，剩下的要等下一次 tick
+            metrics.recordTransferBacklog(timeouts.size());
+        }
+
+        /**
+         * 根据 timeout.deadline 计算它应该放在哪个 bucket 中
+         * @param timeout
+         */
+        public void placeTimeout(HashedWheelTimeout timeout) {
+            long calculated = timeout.deadline / tickDuration;
+            if (precise && calculated < tick) {
+                // 精确模式下，在已经开始的那一格（或者更早）到期的任务直接进堆
+                addDueTimeout(timeout);
+                return;
+            }
+            if (overflowWheels.length == 0) {
                 // 假如 timeout.deadline = 31000ms, tickDuration = 100ms, 整个时间轮一圈有60个刻度,即wheel.length=60
                 // calculated = 31000 / 100 = 310，那么这个任务需要310个刻度，但是一圈只有60个刻度
                 // 这个任务就应该转 5 圈之后放在第 10 个刻度中。
                 // timeout.remainingRounds = 310 / 60 = 5
-                long calculated = timeout.deadline / tickDuration;
                 timeout.remainingRounds = (calculated - tick) / wheel.length;
                 // 一般来说都是 calculated 最大，stopIndex = calculated % wheel.length = 10. 将任务放在这个刻度中
                 final long ticks = Math.max(calculated, tick);
@@ -305,6 +1535,39 @@ public class HashedWheelTimer implements Timer {
 
                 HashedWheelBucket bucket = wheel[stopIndex];
                 bucket.addTimeout(timeout);
+                return;
+            }
+            final long ticks = Math.max(calculated, tick);
+            timeout.remainingRounds = 0;
+            // 一圈之内能执行的，放在第0层
+            if (ticks - tick < wheel.length) {
+                wheel[(int) (ticks & mask)].addTimeout(timeout);
+                return;
+            }
+            // 找到第一个能在一圈之内降级的层，比如 wheel.length = 512，延迟 30min 的任务在第1层（一个刻度51.2s）
+            // 最高层放不下的任务才需要用 remainingRounds 记录圈数
+            for (int level = 1; level <= overflowWheels.length; level++) {
+                int shift = wheelBits * level;
+                long diff = (ticks >>> shift) - (tick >>> shift);
+                if (diff < wheel.length || level == overflowWheels.length) {
+                    timeout.remainingRounds = (diff - 1) / wheel.length;
+                    overflowWheels[level - 1][(int) ((ticks >>> shift) & mask)].addTimeout(timeout);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 第 level 层的一个刻度等于 2^(wheelBits * level) 个 tick，
+         * 当 tick 走到这个刻度的起点时，这个刻度里的任务都要在一个刻度之内执行，把它们重新放到低层
+         */
+        public void cascadeOverflowWheels() {
+            for (int level = overflowWheels.length; level >= 1; level--) {
+                int shift = wheelBits * level;
+                if ((tick & ((1L << shift) - 1)) != 0) {
+                    continue;
+                }
+                overflowWheels[level - 1][(int) ((tick >>> shift) & mask)].cascadeTimeouts(this);
             }
         }
     }
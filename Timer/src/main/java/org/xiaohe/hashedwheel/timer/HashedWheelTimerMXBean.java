@@ -0,0 +1,94 @@
+package org.xiaohe.hashedwheel.timer;
+
+/**
+ * @author : 小何
+ * @Description : 通过 JMX 查看时间轮是否跟不上了，时间单位都是纳秒。
+ *                由 HashedWheelTimer.registerMBean 注册，ObjectName 为 org.xiaohe.hashedwheel:type=HashedWheelTimer,name=xxx
+ * @date : 2024-03-14 19:40
+ */
+public interface HashedWheelTimerMXBean {
+    /**
+     * 未执行、未取消的任务数（LAZY 取消策略下包含墓碑）
+     */
+    long getPendingTimeouts();
+
+    /**
+     * worker 已经处理了多少次 tick
+     */
+    long getTicks();
+
+    /**
+     * waitForNextTick 返回的时间比这一格应该结束的时间晚了多久
+     */
+    long getLastTickLagNanos();
+
+    long getMaxTickLagNanos();
+
+    long getAverageTickLagNanos();
+
+    /**
+     * 最近一次 tick 执行（交给 taskExecutor）了多少个任务
+     */
+    int getLastTickExpiredCount();
+
+    long getTotalExpired();
+
+    /**
+     * 最近一次 tick 在 expireTimeouts 中花了多久
+     */
+    long getLastExpireNanos();
+
+    long getMaxExpireNanos();
+
+    /**
+     * transferTimeoutsToBuckets 转移了 100000 个任务之后，timeouts 队列里还剩多少，没碰到上限时为 0
+     */
+    long getLastTransferBacklog();
+
+    /**
+     * 碰到转移上限的次数
+     */
+    long getTransferCapHits();
+
+    /**
+     * cancelledTimeouts 队列的长度
+     */
+    int getCancelledQueueDepth();
+
+    /**
+     * LAZY 取消策略下还留在时间轮里的已取消任务
+     */
+    long getTombstones();
+
+    /**
+     * 第0层 bucket 中任务数的分布：下标 0 是空的 bucket 个数，下标 i 是任务数在 [2^(i-1), 2^i) 之间的 bucket 个数
+     */
+    long[] getBucketOccupancyHistogram();
+
+    int getMaxBucketOccupancy();
+
+    /**
+     * 层级时间轮中还在高层等待降级的任务数
+     */
+    long getOverflowTimeouts();
+
+    /**
+     * pendingTimeouts / maxPendingTimeouts，不限制任务数时为 0
+     */
+    double getAdmissionPressure();
+
+    /**
+     * 因为任务数达到上限被拒绝的次数，包括 tryNewTimeout 返回 null 的次数
+     */
+    long getRejectedTimeouts();
+
+    /**
+     * CALLER_RUNS 策略下由调用线程执行的任务数
+     */
+    long getCallerRunsTimeouts();
+
+    /**
+     * 把 max 类的指标清零，重新统计
+     */
+    void resetPeaks();
+}
@@ -0,0 +1,213 @@
+package org.xiaohe.hashedwheel.timer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author : 小何
+ * @Description : HashedWheelTimer 的运行指标。
+ *                record 开头的方法只由 worker 线程调用，只修改 long 字段，不分配对象；
+ *                字段是 volatile 的，其他线程（JMX）读到的是最近一次写入的值。
+ *                bucket 的任务数由 worker 维护，这里读的时候不加锁，只是一个近似值。
+ *                准入相关的计数由提交任务的线程记录，用 LongAdder
+ * @date : 2024-03-14 19:52
+ */
+public class HashedWheelTimerMetrics implements HashedWheelTimerMXBean {
+    private final HashedWheelTimer timer;
+
+    private volatile long ticks;
+    private volatile long lastTickLag;
+    private volatile long maxTickLag;
+    private volatile long totalTickLag;
+
+    private volatile int lastTickExpiredCount;
+    private volatile long totalExpired;
+    private volatile long lastExpireNanos;
+    private volatile long maxExpireNanos;
+
+    private volatile long lastTransferBacklog;
+    private volatile long transferCapHits;
+
+    private final LongAdder rejectedTimeouts = new LongAdder();
+    private final LongAdder callerRunsTimeouts = new LongAdder();
+
+    public HashedWheelTimerMetrics(HashedWheelTimer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * worker 线程调用：waitForNextTick 返回了
+     * @param lag 返回的时间 - 这一格应该结束的时间
+     */
+    public void recordTickLag(long lag) {
+        if (lag < 0) {
+            lag = 0;
+        }
+        ticks++;
+        lastTickLag = lag;
+        totalTickLag += lag;
+        if (lag > maxTickLag) {
+            maxTickLag = lag;
+        }
+    }
+
+    /**
+     * worker 线程调用：一个 bucket 的 expireTimeouts 结束了
+     * @param expired 交给 taskExecutor 的任务数
+     * @param nanos 耗时
+     */
+    public void recordExpire(int expired, long nanos) {
+        lastTickExpiredCount = expired;
+        totalExpired += expired;
+        lastExpireNanos = nanos;
+        if (nanos > maxExpireNanos) {
+            maxExpireNanos = nanos;
+        }
+    }
+
+    /**
+     * worker 线程调用：transferTimeoutsToBuckets 碰到了上限
+     * @param backlog 队列里剩下的任务数
+     */
+    public void recordTransferBacklog(long backlog) {
+        lastTransferBacklog = backlog;
+        if (backlog > 0) {
+            transferCapHits++;
+        }
+    }
+
+    /**
+     * 提交任务的线程调用：任务数达到上限，任务被拒绝了
+     */
+    public void recordRejected() {
+        rejectedTimeouts.increment();
+    }
+
+    /**
+     * 提交任务的线程调用：任务数达到上限，任务由调用线程执行
+     */
+    public void recordCallerRuns() {
+        callerRunsTimeouts.increment();
+    }
+
+    @Override
+    public long getPendingTimeouts() {
+        return timer.pendingTimeouts.get();
+    }
+
+    @Override
+    public long getTicks() {
+        return ticks;
+    }
+
+    @Override
+    public long getLastTickLagNanos() {
+        return lastTickLag;
+    }
+
+    @Override
+    public long getMaxTickLagNanos() {
+        return maxTickLag;
+    }
+
+    @Override
+    public long getAverageTickLagNanos() {
+        long ticks = this.ticks;
+        return ticks == 0 ? 0 : totalTickLag / ticks;
+    }
+
+    @Override
+    public int getLastTickExpiredCount() {
+        return lastTickExpiredCount;
+    }
+
+    @Override
+    public long getTotalExpired() {
+        return totalExpired;
+    }
+
+    @Override
+    public long getLastExpireNanos() {
+        return lastExpireNanos;
+    }
+
+    @Override
+    public long getMaxExpireNanos() {
+        return maxExpireNanos;
+    }
+
+    @Override
+    public long getLastTransferBacklog() {
+        return lastTransferBacklog;
+    }
+
+    @Override
+    public long getTransferCapHits() {
+        return transferCapHits;
+    }
+
+    @Override
+    public int getCancelledQueueDepth() {
+        return timer.cancelledTimeouts.size();
+    }
+
+    @Override
+    public long getTombstones() {
+        return timer.tombstones.sum();
+    }
+
+    @Override
+    public long[] getBucketOccupancyHistogram() {
+        // 任务数最多是 int，所以最多 33 个区间
+        long[] histogram = new long[33];
+        int highest = 0;
+        for (HashedWheelBucket bucket : timer.wheel) {
+            int i = 32 - Integer.numberOfLeadingZeros(Math.max(bucket.size, 0));
+            histogram[i]++;
+            highest = Math.max(highest, i);
+        }
+        long[] result = new long[highest + 1];
+        System.arraycopy(histogram, 0, result, 0, result.length);
+        return result;
+    }
+
+    @Override
+    public int getMaxBucketOccupancy() {
+        int max = 0;
+        for (HashedWheelBucket bucket : timer.wheel) {
+            max = Math.max(max, bucket.size);
+        }
+        return max;
+    }
+
+    @Override
+    public long getOverflowTimeouts() {
+        long sum = 0;
+        for (HashedWheelBucket[] overflowWheel : timer.overflowWheels) {
+            for (HashedWheelBucket bucket : overflowWheel) {
+                sum += bucket.size;
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public double getAdmissionPressure() {
+        return timer.admissionPressure();
+    }
+
+    @Override
+    public long getRejectedTimeouts() {
+        return rejectedTimeouts.sum();
+    }
+
+    @Override
+    public long getCallerRunsTimeouts() {
+        return callerRunsTimeouts.sum();
+    }
+
+    @Override
+    public void resetPeaks() {
+        maxTickLag = 0;
+        maxExpireNanos = 0;
+    }
+}
@@ -0,0 +1,326 @@
+package org.xiaohe.hashedwheel.timer;
+
+import io.netty.util.internal.PlatformDependent;
+import org.xiaohe.hashedwheel.timeout.LocalTimeout;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 没有 worker 线程的单层时间轮，由事件循环（比如 SubReactor）自己驱动：
+ *                1. 用 nextDeadlineNanos() 计算 select 的超时时间
+ *                2. select 返回后调用 tick(System.nanoTime())，到期的任务在当前线程中直接执行
+ *                除了 LocalTimeout.cancel，所有方法只能在同一个线程（第一次调用 tick 或 nextDeadlineNanos 的线程）中调用，
+ *                没有 CAS、也没有跨线程唤醒。其他线程取消任务时（比如 delay、withDeadline 的 future 在别的线程中完成），
+ *                取消请求放进 remoteCancels，由事件循环线程在下一次 tick 时处理。
+ *                取消直接从链表中摘掉；tick 时跳过连续的空 bucket，空闲很久之后也不会一格一格地走
+ * @date : 2024-03-24 16:25
+ */
+public class LocalHashedWheelTimer implements Timer {
+    public final long tickDuration;
+    public final long startTime;
+    private final LocalTimeout[] heads;
+    private final LocalTimeout[] tails;
+    private final int mask;
+
+    /**
+     * 下一个要处理的 tick
+     */
+    private long tick;
+    private int size;
+    /**
+     * nextBusyTick 的缓存，-1 表示需要重新计算。添加任务时取较小值，处理完 tick 之后失效；
+     * 取消任务时不更新，最多早醒一次
+     */
+    private long cachedBusyTick = -1;
+    private boolean stopped;
+    /**
+     * 驱动这个时间轮的事件循环线程，第一次调用 tick 或 nextDeadlineNanos 时确定
+     */
+    private volatile Thread ownerThread;
+    /**
+     * 其他线程提交的取消请求
+     */
+    private final Queue<LocalTimeout> remoteCancels = PlatformDependent.newMpscQueue();
+
+    public LocalHashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        // 借用 createWheel 检查参数并取 2^n
+        int wheelLength = HashedWheelTimer.createWheel(ticksPerWheel).length;
+        heads = new LocalTimeout[wheelLength];
+        tails = new LocalTimeout[wheelLength];
+        mask = wheelLength - 1;
+        this.tickDuration = unit.toNanos(tickDuration);
+        if (this.tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        this.startTime = System.nanoTime();
+    }
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("timer is stopped");
+        }
+        checkOwnerThread();
+        LocalTimeout timeout = new LocalTimeout(this, task, deadlineOf(delay, unit));
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 处理所有在 nowNanos 之前结束的 tick，到期的任务在当前线程中执行
+     * @param nowNanos System.nanoTime()
+     * @return 执行了多少个任务
+     */
+    public int tick(long nowNanos) {
+        bindOwnerThread();
+        processRemoteCancels();
+        final long currentTime = nowNanos - startTime;
+        // 最后一个已经结束的 tick
+        final long lastTick = currentTime / tickDuration - 1;
+        int expired = 0;
+        while (tick <= lastTick) {
+            long busy = nextBusyTick();
+            if (busy > lastTick) {
+                tick = lastTick + 1;
+                break;
+            }
+            tick = busy;
+            LocalTimeout due = collectExpired((int) (tick & mask), currentTime);
+            // 先走一步，任务里再添加的已过期任务会放进下一格
+            tick++;
+            cachedBusyTick = -1;
+            expired += runExpired(due);
+        }
+        return expired;
+    }
+
+    /**
+     * 下一次需要调用 tick 的时间，可以用来计算 select 的超时时间
+     * @return System.nanoTime() 的时间基准；没有任务时返回 Long.MAX_VALUE
+     */
+    public long nextDeadlineNanos() {
+        bindOwnerThread();
+        processRemoteCancels();
+        long busy = nextBusyTick();
+        if (busy == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        // 这一格结束时处理
+        return startTime + (busy + 1) * tickDuration;
+    }
+
+    /**
+     * 离 nextDeadlineNanos 还有多少毫秒，向上取整，可以直接传给 Selector.select(long)
+     * @param nowNanos
+     * @return 0 表示已经到了，应该 selectNow；-1 表示没有任务，可以一直阻塞
+     */
+    public long selectTimeoutMillis(long nowNanos) {
+        long deadline = nextDeadlineNanos();
+        if (deadline == Long.MAX_VALUE) {
+            return -1;
+        }
+        long remaining = deadline - nowNanos;
+        return remaining <= 0 ? 0 : (remaining + 999999) / 1000000;
+    }
+
+    public int pendingTimeouts() {
+        return size;
+    }
+
+    @Override
+    public Set<Timeout> stop() {
+        stopped = true;
+        Set<Timeout> unprocessed = new HashSet<>();
+        for (int i = 0; i < heads.length; i++) {
+            for (LocalTimeout timeout = heads[i]; timeout != null; timeout = timeout.next) {
+                unprocessed.add(timeout);
+            }
+            heads[i] = tails[i] = null;
+        }
+        size = 0;
+        return Collections.unmodifiableSet(unprocessed);
+    }
+
+    /**
+     * 当前线程是不是事件循环线程。还没有确定事件循环线程时（初始化阶段）算是
+     * @return
+     */
+    public boolean inOwnerThread() {
+        Thread owner = ownerThread;
+        return owner == null || owner == Thread.currentThread();
+    }
+
+    private void checkOwnerThread() {
+        if (!inOwnerThread()) {
+            throw new IllegalStateException("LocalHashedWheelTimer can only be used from its event loop thread: "
+                    + ownerThread.getName());
+        }
+    }
+
+    private void bindOwnerThread() {
+        if (ownerThread == null) {
+            ownerThread = Thread.currentThread();
+        }
+    }
+
+    /**
+     * LocalTimeout.cancel 在其他线程中调用：交给事件循环线程处理
+     * @param timeout
+     */
+    public void cancelLater(LocalTimeout timeout) {
+        remoteCancels.offer(timeout);
+    }
+
+    private void processRemoteCancels() {
+        for (;;) {
+            LocalTimeout timeout = remoteCancels.poll();
+            if (timeout == null) {
+                return;
+            }
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * LocalTimeout.cancel 调用
+     * @param timeout
+     */
+    public void remove(LocalTimeout timeout) {
+        if (timeout.bucket >= 0) {
+            unlink(timeout);
+            size--;
+        }
+    }
+
+    /**
+     * LocalTimeout.reset 调用：摘下来，按新的 deadline 重新放进去
+     */
+    public void reschedule(LocalTimeout timeout, long delay, TimeUnit unit) {
+        unlink(timeout);
+        timeout.deadline = deadlineOf(delay, unit);
+        place(timeout);
+    }
+
+    private long deadlineOf(long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+        if (delay > 0 && deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+        return deadline;
+    }
+
+    private void place(LocalTimeout timeout) {
+        long calculated = timeout.deadline / tickDuration;
+        long ticks = Math.max(calculated, tick);
+        timeout.remainingRounds = (ticks - tick) / heads.length;
+        int bucket = (int) (ticks & mask);
+        timeout.bucket = bucket;
+        timeout.next = null;
+        timeout.prev = tails[bucket];
+        if (heads[bucket] == null) {
+            heads[bucket] = timeout;
+        } else {
+            tails[bucket].next = timeout;
+        }
+        tails[bucket] = timeout;
+        if (cachedBusyTick >= 0) {
+            // 第一次经过这个 bucket 的 tick
+            cachedBusyTick = Math.min(cachedBusyTick, tick + ((ticks - tick) & mask));
+        }
+    }
+
+    private void unlink(LocalTimeout timeout) {
+        int bucket = timeout.bucket;
+        if (timeout.prev == null) {
+            heads[bucket] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+        if (timeout.next == null) {
+            tails[bucket] = timeout.prev;
+        } else {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+    }
+
+    /**
+     * 从 tick 开始第一个不为空的 bucket 的 tick
+     * @return 没有任务时返回 Long.MAX_VALUE
+     */
+    private long nextBusyTick() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        if (cachedBusyTick >= tick) {
+            return cachedBusyTick;
+        }
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[(int) ((tick + i) & mask)] != null) {
+                next = tick + i;
+                break;
+            }
+        }
+        cachedBusyTick = next;
+        return next;
+    }
+
+    /**
+     * 把 bucket 中到期的任务摘下来串成一条链（借用 next 字段），圈数没到的减一
+     * @return 链表头
+     */
+    private LocalTimeout collectExpired(int bucket, long currentTime) {
+        LocalTimeout due = null;
+        LocalTimeout dueTail = null;
+        LocalTimeout timeout = heads[bucket];
+        while (timeout != null) {
+            LocalTimeout next = timeout.next;
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+            } else if (timeout.deadline <= currentTime) {
+                unlink(timeout);
+                size--;
+                timeout.state = LocalTimeout.ST_EXPIRED;
+                if (due == null) {
+                    due = timeout;
+                } else {
+                    dueTail.next = timeout;
+                }
+                dueTail = timeout;
+            }
+            timeout = next;
+        }
+        return due;
+    }
+
+    /**
+     * 先把到期的任务都摘下来再执行，任务里取消、添加别的任务不会影响正在遍历的链表
+     */
+    private int runExpired(LocalTimeout due) {
+        int expired = 0;
+        while (due != null) {
+            LocalTimeout next = due.next;
+            due.next = null;
+            try {
+                due.task.run(due);
+            } catch (Throwable t) {
+                new RuntimeException("An exception was thrown by " + TimerTask.class.getSimpleName() + ".", t)
+                        .printStackTrace();
+            }
+            expired++;
+            due = next;
+        }
+        return expired;
+    }
+}
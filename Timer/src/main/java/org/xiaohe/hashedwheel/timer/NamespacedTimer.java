@@ -0,0 +1,276 @@
+package org.xiaohe.hashedwheel.timer;
+
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author : 小何
+ * @Description : SharedTimerService 中的一个命名空间，所有命名空间共用同一组时间轮和 worker 线程。
+ *                每个命名空间有自己的任务数上限和计数，stop 只取消这个命名空间的任务，不会停止共享的时间轮
+ * @date : 2024-04-02 20:18
+ */
+public class NamespacedTimer implements Timer {
+    public final String name;
+    private final SharedTimerService service;
+    private final long maxPendingTimeouts;
+    /**
+     * 这个命名空间还没执行、没取消的任务，stop 时要把它们从共享的时间轮中取消掉。
+     * 任务执行、取消、被 stop 时谁先把它从这里删掉，谁就负责把 pendingTimeouts 减一
+     */
+    private final Set<NamespacedTimeout> liveTimeouts = ConcurrentHashMap.newKeySet();
+    public final AtomicLong pendingTimeouts = new AtomicLong(0);
+
+    private final LongAdder scheduledTimeouts = new LongAdder();
+    private final LongAdder expiredTimeouts = new LongAdder();
+    private final LongAdder cancelledTimeouts = new LongAdder();
+    private final LongAdder rejectedTimeouts = new LongAdder();
+
+    private volatile boolean stopped;
+
+    NamespacedTimer(String name, SharedTimerService service, long maxPendingTimeouts) {
+        this.name = name;
+        this.service = service;
+        this.maxPendingTimeouts = maxPendingTimeouts;
+    }
+
+    /**
+     * 命名空间或者共享的时间轮满了时抛出 RejectedExecutionException。
+     * 共享的时间轮用 tryNewTimeout 添加，不会因为它的 admissionPolicy 阻塞调用线程
+     */
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        Timeout timeout = newTimeout0(task, delay, unit);
+        if (timeout == null) {
+            throw new RejectedExecutionException("Number of pending timeouts in namespace " + name
+                    + " reached maxPendingTimeouts (" + maxPendingTimeouts + "), or the shared timer is full");
+        }
+        return timeout;
+    }
+
+    /**
+     * 命名空间或者共享的时间轮满了时返回 null
+     */
+    @Override
+    public Timeout tryNewTimeout(TimerTask task, long delay, TimeUnit unit) {
+        return newTimeout0(task, delay, unit);
+    }
+
+    private Timeout newTimeout0(TimerTask task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException("namespace " + name + " has been stopped");
+        }
+        if (!tryAcquirePending()) {
+            rejectedTimeouts.increment();
+            return null;
+        }
+        // 先放进 liveTimeouts 再放进共享的时间轮，否则很短的任务可能在放进 liveTimeouts 之前就到期了。
+        // 所以 stop、cancel、run 都可能看到还没有绑定共享时间轮任务的 NamespacedTimeout
+        NamespacedTimeout timeout = new NamespacedTimeout(task);
+        liveTimeouts.add(timeout);
+        Timeout backingTimeout;
+        try {
+            backingTimeout = service.backing.tryNewTimeout(timeout, delay, unit);
+        } catch (RuntimeException e) {
+            if (liveTimeouts.remove(timeout)) {
+                pendingTimeouts.decrementAndGet();
+            }
+            throw e;
+        }
+        if (backingTimeout == null) {
+            if (liveTimeouts.remove(timeout)) {
+                pendingTimeouts.decrementAndGet();
+            }
+            rejectedTimeouts.increment();
+            return null;
+        }
+        timeout.bind(backingTimeout);
+        scheduledTimeouts.increment();
+        // 和 stop 并发时，stop 可能没看到这个任务
+        if (stopped && liveTimeouts.remove(timeout)) {
+            pendingTimeouts.decrementAndGet();
+            timeout.cancelBacking();
+            throw new IllegalStateException("namespace " + name + " has been stopped");
+        }
+        return timeout;
+    }
+
+    private boolean tryAcquirePending() {
+        if (maxPendingTimeouts <= 0) {
+            pendingTimeouts.incrementAndGet();
+            return true;
+        }
+        for (;;) {
+            long count = pendingTimeouts.get();
+            if (count >= maxPendingTimeouts) {
+                return false;
+            }
+            if (pendingTimeouts.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 取消这个命名空间中所有还没执行的任务，之后不能再添加任务。共享的时间轮和其他命名空间不受影响
+     * @return 被取消的任务
+     */
+    @Override
+    public Set<Timeout> stop() {
+        stopped = true;
+        service.remove(this);
+        Set<Timeout> unprocessedTimeouts = new HashSet<>();
+        for (NamespacedTimeout timeout : liveTimeouts) {
+            if (liveTimeouts.remove(timeout)) {
+                pendingTimeouts.decrementAndGet();
+                timeout.cancelBacking();
+                unprocessedTimeouts.add(timeout);
+            }
+        }
+        return unprocessedTimeouts;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public long getMaxPendingTimeouts() {
+        return maxPendingTimeouts;
+    }
+
+    /**
+     * pendingTimeouts / maxPendingTimeouts，不限制任务数时为 0
+     * @return
+     */
+    public double admissionPressure() {
+        if (maxPendingTimeouts <= 0) {
+            return 0;
+        }
+        return (double) pendingTimeouts.get() / maxPendingTimeouts;
+    }
+
+    public long getScheduledTimeouts() {
+        return scheduledTimeouts.sum();
+    }
+
+    public long getExpiredTimeouts() {
+        return expiredTimeouts.sum();
+    }
+
+    public long getCancelledTimeouts() {
+        return cancelledTimeouts.sum();
+    }
+
+    public long getRejectedTimeouts() {
+        return rejectedTimeouts.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "NamespacedTimer(" + name + ", pending: " + pendingTimeouts.get() + ")";
+    }
+
+    /**
+     * 包装用户的任务放进共享的时间轮，用户拿到的 Timeout 和 TimerTask.run 的参数都是它，timer() 返回命名空间。
+     * 状态由自己维护，不依赖共享时间轮中的任务：谁先把它从 liveTimeouts 中删掉，谁就决定它是执行了还是取消了
+     */
+    private class NamespacedTimeout implements Timeout, TimerTask {
+        private final TimerTask task;
+        /**
+         * 共享时间轮中的任务，newTimeout 返回之前才绑定，在这之前为空
+         */
+        private volatile Timeout timeout;
+        private volatile boolean expired;
+        private volatile boolean cancelled;
+
+        NamespacedTimeout(TimerTask task) {
+            this.task = task;
+        }
+
+        /**
+         * 绑定共享时间轮中的任务。绑定之前已经被取消的，这里把它取消掉；
+         * 和 cancelBacking 一个先写 cancelled 再读 timeout，一个先写 timeout 再读 cancelled，至少有一边会取消它
+         */
+        void bind(Timeout timeout) {
+            this.timeout = timeout;
+            if (cancelled) {
+                timeout.cancel();
+            }
+        }
+
+        /**
+         * 已经从 liveTimeouts 中删掉之后调用，把共享时间轮中的任务也取消掉（还没绑定时由 bind 取消）
+         */
+        void cancelBacking() {
+            cancelled = true;
+            Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+
+        @Override
+        public void run(Timeout ignored) throws Exception {
+            // 已经被 stop 或者 cancel 拿走了
+            if (!liveTimeouts.remove(this)) {
+                return;
+            }
+            expired = true;
+            pendingTimeouts.decrementAndGet();
+            expiredTimeouts.increment();
+            task.run(this);
+        }
+
+        @Override
+        public Timer timer() {
+            return NamespacedTimer.this;
+        }
+
+        @Override
+        public TimerTask task() {
+            return task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return expired;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!liveTimeouts.remove(this)) {
+                return false;
+            }
+            pendingTimeouts.decrementAndGet();
+            cancelledTimeouts.increment();
+            cancelBacking();
+            return true;
+        }
+
+        /**
+         * 还没绑定、已经执行或者取消时返回 false
+         */
+        @Override
+        public boolean reset(long delay, TimeUnit unit) {
+            Timeout timeout = this.timeout;
+            return timeout != null && !expired && !cancelled && timeout.reset(delay, unit);
+        }
+
+        @Override
+        public String toString() {
+            return "NamespacedTimeout(" + name + ", " + timeout + ")";
+        }
+    }
+}
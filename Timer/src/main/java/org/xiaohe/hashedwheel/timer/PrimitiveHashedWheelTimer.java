@@ -0,0 +1,452 @@
+package org.xiaohe.hashedwheel.timer;
+
+import io.netty.util.internal.ObjectUtil;
+import org.xiaohe.hashedwheel.timertask.ExpiryCallback;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * @author : 小何
+ * @Description : 任务状态全部放在基本类型数组中的单层时间轮，适合千万级别的空闲连接超时。
+ *                HashedWheelTimer 每个任务是一个 HashedWheelTimeout 对象（对象头 + timer、task、prev、next、bucket 等引用），
+ *                这里每个任务只是数组中的一个下标（slot），大约 36 字节，GC 标记时基本类型数组不需要扫描。
+ *                1. newTimeout 返回 long 类型的 id：高 32 位是 slot 的代数，低 32 位是 slot。slot 回收后代数加一，旧的 id 就失效了
+ *                2. 每个 bucket 是一条用 nexts / prevs 数组串起来的双向链表，空闲的 slot 用 nexts 串成空闲链表
+ *                3. 所有数组由 lock 保护（和 jdkTimer 的 synchronized(queue) 一样），到期回调在锁外执行
+ * @date : 2024-03-18 20:25
+ */
+public class PrimitiveHashedWheelTimer {
+    private static final int NIL = -1;
+
+    private final Object lock = new Object();
+
+    private final ExpiryCallback callback;
+
+    public final long tickDuration;
+    private final int mask;
+    /**
+     * 每个 bucket 链表的头尾 slot
+     */
+    private final int[] heads;
+    private final int[] tails;
+
+    /**
+     * 下面的数组用 slot 作为下标，一个 slot 就是一个任务
+     */
+    private long[] deadlines;
+    private long[] attachments;
+    private int[] nexts;
+    private int[] prevs;
+    /**
+     * slot 所在的 bucket，空闲时为 NIL
+     */
+    private int[] bucketIndexes;
+    private int[] remainingRounds;
+    private int[] generations;
+
+    /**
+     * 空闲链表的头
+     */
+    private int freeHead = NIL;
+    /**
+     * [0, used) 的 slot 被用过，大于等于 used 的 slot 从没用过
+     */
+    private int used;
+    /**
+     * 未到期、未取消的任务数
+     */
+    private int size;
+    private final long maxPendingTimeouts;
+
+    /**
+     * 指针移动次数，由 lock 保护
+     */
+    private long tick;
+
+    /**
+     * worker 线程收集的到期任务：id, attachment, id, attachment ...，只有 worker 线程使用
+     */
+    private long[] expiredBatch = new long[128];
+
+    public final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+    public volatile long startTime;
+
+    private volatile int workerState;
+    private static final AtomicIntegerFieldUpdater<PrimitiveHashedWheelTimer> WORKER_STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(PrimitiveHashedWheelTimer.class, "workerState");
+    public final Thread workerThread;
+
+    /**
+     *
+     * @param threadFactory
+     * @param tickDuration
+     * @param unit
+     * @param ticksPerWheel
+     * @param initialCapacity slot 数组的初始大小，不够时翻倍扩容。预计有 1000 万个任务时直接传 1000 万，避免扩容时复制
+     * @param maxPendingTimeouts 小于等于0表示不限制
+     * @param callback 所有任务共用的到期回调
+     */
+    public PrimitiveHashedWheelTimer(ThreadFactory threadFactory,
+                                     long tickDuration,
+                                     TimeUnit unit,
+                                     int ticksPerWheel,
+                                     int initialCapacity,
+                                     long maxPendingTimeouts,
+                                     ExpiryCallback callback) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("initialCapacity must be greater than 0: " + initialCapacity);
+        }
+        this.callback = ObjectUtil.checkNotNull(callback, "callback");
+        // 借用 createWheel 检查参数并取 2^n
+        int wheelLength = HashedWheelTimer.createWheel(ticksPerWheel).length;
+        mask = wheelLength - 1;
+        heads = new int[wheelLength];
+        tails = new int[wheelLength];
+        Arrays.fill(heads, NIL);
+        Arrays.fill(tails, NIL);
+        deadlines = new long[initialCapacity];
+        attachments = new long[initialCapacity];
+        nexts = new int[initialCapacity];
+        prevs = new int[initialCapacity];
+        bucketIndexes = new int[initialCapacity];
+        remainingRounds = new int[initialCapacity];
+        generations = new int[initialCapacity];
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.maxPendingTimeouts = maxPendingTimeouts;
+        workerThread = threadFactory.newThread(new Worker());
+    }
+
+    /**
+     * 添加一个任务
+     * @param attachment 到期时原样传给 callback
+     * @param delay
+     * @param unit
+     * @return 任务的 id，用于 cancel / reset
+     */
+    public long newTimeout(long attachment, long delay, TimeUnit unit) {
+        start();
+        long deadline = deadlineOf(delay, unit);
+        synchronized (lock) {
+            if (maxPendingTimeouts > 0 && size >= maxPendingTimeouts) {
+                throw new RejectedExecutionException("Number of pending timeouts (" + size
+                        + ") is greater than or equal to maximum allowed pending timeouts (" + maxPendingTimeouts + ")");
+            }
+            int slot = allocate();
+            deadlines[slot] = deadline;
+            attachments[slot] = attachment;
+            place(slot);
+            size++;
+            return idOf(slot);
+        }
+    }
+
+    /**
+     * 取消任务
+     * @param timeoutId
+     * @return 任务已经到期、已经取消或者 id 无效时返回 false
+     */
+    public boolean cancel(long timeoutId) {
+        synchronized (lock) {
+            int slot = slotOf(timeoutId);
+            if (slot == NIL) {
+                return false;
+            }
+            unlink(slot);
+            free(slot);
+            return true;
+        }
+    }
+
+    /**
+     * 原地修改任务的执行时间，比如连接有读写时推迟空闲超时，不需要取消再新建
+     * @param timeoutId
+     * @param delay
+     * @param unit
+     * @return 任务已经到期、已经取消或者 id 无效时返回 false
+     */
+    public boolean reset(long timeoutId, long delay, TimeUnit unit) {
+        long deadline = deadlineOf(delay, unit);
+        synchronized (lock) {
+            int slot = slotOf(timeoutId);
+            if (slot == NIL) {
+                return false;
+            }
+            unlink(slot);
+            deadlines[slot] = deadline;
+            place(slot);
+            return true;
+        }
+    }
+
+    /**
+     * 任务是否还没到期、也没被取消
+     * @param timeoutId
+     * @return
+     */
+    public boolean isPending(long timeoutId) {
+        synchronized (lock) {
+            return slotOf(timeoutId) != NIL;
+        }
+    }
+
+    public int pendingTimeouts() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    /**
+     * 停止 worker 线程
+     * @return 还没有到期的任务数，这些任务都被丢掉了
+     */
+    public int stop() {
+        if (Thread.currentThread() == workerThread) {
+            throw new IllegalStateException(
+                    PrimitiveHashedWheelTimer.class.getSimpleName() + ".stop() cannot be called from "
+                            + ExpiryCallback.class.getSimpleName());
+        }
+        if (!WORKER_STATE_UPDATER.compareAndSet(this, HashedWheelTimer.WORKER_STATE_STARTED,
+                HashedWheelTimer.WORKER_STATE_SHUTDOWN)) {
+            WORKER_STATE_UPDATER.getAndSet(this, HashedWheelTimer.WORKER_STATE_SHUTDOWN);
+            return 0;
+        }
+        boolean interrupted = false;
+        while (workerThread.isAlive()) {
+            workerThread.interrupt();
+            try {
+                workerThread.join(100);
+            } catch (InterruptedException ignored) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            int unprocessed = size;
+            Arrays.fill(heads, NIL);
+            Arrays.fill(tails, NIL);
+            Arrays.fill(bucketIndexes, 0, used, NIL);
+            size = 0;
+            return unprocessed;
+        }
+    }
+
+    public void start() {
+        switch (WORKER_STATE_UPDATER.get(this)) {
+            case HashedWheelTimer.WORKER_STATE_INIT:
+                if (WORKER_STATE_UPDATER.compareAndSet(this, HashedWheelTimer.WORKER_STATE_INIT,
+                        HashedWheelTimer.WORKER_STATE_STARTED)) {
+                    workerThread.start();
+                }
+                break;
+            case HashedWheelTimer.WORKER_STATE_STARTED:
+                break;
+            case HashedWheelTimer.WORKER_STATE_SHUTDOWN:
+                throw new IllegalStateException();
+            default:
+                throw new Error("Invalid WorkerState");
+        }
+        while (startTime == 0) {
+            try {
+                startTimeInitialized.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private long deadlineOf(long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(delay) - startTime;
+        if (delay > 0 && deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+        return deadline;
+    }
+
+    /**
+     * 持有 lock 时调用：id 对应的 slot 还在时间轮中时返回 slot，否则返回 NIL
+     */
+    private int slotOf(long timeoutId) {
+        int slot = (int) timeoutId;
+        int generation = (int) (timeoutId >>> 32);
+        if (slot < 0 || slot >= used || generations[slot] != generation || bucketIndexes[slot] == NIL) {
+            return NIL;
+        }
+        return slot;
+    }
+
+    private long idOf(int slot) {
+        return ((long) generations[slot] << 32) | slot;
+    }
+
+    /**
+     * 持有 lock 时调用：先从空闲链表中取，没有就用一个新的 slot，数组满了就扩容
+     */
+    private int allocate() {
+        int slot = freeHead;
+        if (slot != NIL) {
+            freeHead = nexts[slot];
+            return slot;
+        }
+        if (used == deadlines.length) {
+            grow();
+        }
+        return used++;
+    }
+
+    private void grow() {
+        int oldCapacity = deadlines.length;
+        if (oldCapacity == Integer.MAX_VALUE - 8) {
+            throw new RejectedExecutionException("too many pending timeouts: " + oldCapacity);
+        }
+        int newCapacity = (int) Math.min((long) oldCapacity << 1, Integer.MAX_VALUE - 8);
+        deadlines = Arrays.copyOf(deadlines, newCapacity);
+        attachments = Arrays.copyOf(attachments, newCapacity);
+        nexts = Arrays.copyOf(nexts, newCapacity);
+        prevs = Arrays.copyOf(prevs, newCapacity);
+        bucketIndexes = Arrays.copyOf(bucketIndexes, newCapacity);
+        remainingRounds = Arrays.copyOf(remainingRounds, newCapacity);
+        generations = Arrays.copyOf(generations, newCapacity);
+    }
+
+    /**
+     * 持有 lock 时调用：代数加一，旧的 id 失效，slot 放回空闲链表
+     */
+    private void free(int slot) {
+        generations[slot] = (generations[slot] + 1) & Integer.MAX_VALUE;
+        bucketIndexes[slot] = NIL;
+        nexts[slot] = freeHead;
+        freeHead = slot;
+        size--;
+    }
+
+    /**
+     * 持有 lock 时调用：和 HashedWheelTimer.Worker.placeTimeout 的单层时间轮一样，用 remainingRounds 记录圈数
+     */
+    private void place(int slot) {
+        long calculated = deadlines[slot] / tickDuration;
+        remainingRounds[slot] = (int) Math.min(Math.max((calculated - tick) / heads.length, 0), Integer.MAX_VALUE);
+        int bucket = (int) (Math.max(calculated, tick) & mask);
+        bucketIndexes[slot] = bucket;
+        nexts[slot] = NIL;
+        prevs[slot] = tails[bucket];
+        if (heads[bucket] == NIL) {
+            heads[bucket] = slot;
+        } else {
+            nexts[tails[bucket]] = slot;
+        }
+        tails[bucket] = slot;
+    }
+
+    /**
+     * 持有 lock 时调用：把 slot 从它所在的 bucket 中摘下来
+     */
+    private void unlink(int slot) {
+        int bucket = bucketIndexes[slot];
+        int prev = prevs[slot];
+        int next = nexts[slot];
+        if (prev == NIL) {
+            heads[bucket] = next;
+        } else {
+            nexts[prev] = next;
+        }
+        if (next == NIL) {
+            tails[bucket] = prev;
+        } else {
+            prevs[next] = prev;
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            startTime = System.nanoTime();
+            if (startTime == 0) {
+                startTime = 1;
+            }
+            startTimeInitialized.countDown();
+
+            do {
+                final long deadline = waitForNextTick();
+                if (deadline > 0) {
+                    int expired = collectExpired(deadline);
+                    notifyExpired(expired);
+                }
+            } while (WORKER_STATE_UPDATER.get(PrimitiveHashedWheelTimer.this) == HashedWheelTimer.WORKER_STATE_STARTED);
+        }
+
+        /**
+         * 把当前 bucket 中到期的任务放进 expiredBatch 并释放 slot
+         * @param deadline
+         * @return 到期的任务数
+         */
+        private int collectExpired(long deadline) {
+            int expired = 0;
+            synchronized (lock) {
+                int bucket = (int) (tick & mask);
+                int slot = heads[bucket];
+                while (slot != NIL) {
+                    int next = nexts[slot];
+                    if (remainingRounds[slot] > 0) {
+                        remainingRounds[slot]--;
+                    } else if (deadlines[slot] <= deadline) {
+                        if (expired * 2 == expiredBatch.length) {
+                            expiredBatch = Arrays.copyOf(expiredBatch, expiredBatch.length << 1);
+                        }
+                        expiredBatch[expired * 2] = idOf(slot);
+                        expiredBatch[expired * 2 + 1] = attachments[slot];
+                        expired++;
+                        unlink(slot);
+                        free(slot);
+                    }
+                    slot = next;
+                }
+                tick++;
+            }
+            return expired;
+        }
+
+        /**
+         * 在锁外执行回调，回调里可以再调用 newTimeout / cancel
+         * @param expired
+         */
+        private void notifyExpired(int expired) {
+            for (int i = 0; i < expired; i++) {
+                try {
+                    callback.expired(expiredBatch[i * 2], expiredBatch[i * 2 + 1]);
+                } catch (Throwable t) {
+                    new RuntimeException("An exception was thrown by " + ExpiryCallback.class.getSimpleName() + ".", t)
+                            .printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * 和 HashedWheelTimer.Worker.waitForNextTick 一样，睡到这一格结束
+         * @return 当前时间，停止时返回 Long.MIN_VALUE
+         */
+        private long waitForNextTick() {
+            long deadline = tickDuration * (tick + 1);
+            for (;;) {
+                final long currentTime = System.nanoTime() - startTime;
+                long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+                if (sleepTimeMs <= 0) {
+                    return currentTime == Long.MIN_VALUE ? -Long.MAX_VALUE : currentTime;
+                }
+                try {
+                    Thread.sleep(sleepTimeMs);
+                } catch (InterruptedException ignored) {
+                    if (WORKER_STATE_UPDATER.get(PrimitiveHashedWheelTimer.this) == HashedWheelTimer.WORKER_STATE_SHUTDOWN) {
+                        return Long.MIN_VALUE;
+                    }
+                }
+            }
+        }
+    }
+}
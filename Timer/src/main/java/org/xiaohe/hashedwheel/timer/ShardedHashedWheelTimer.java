@@ -0,0 +1,138 @@
+package org.xiaohe.hashedwheel.timer;
+
+import io.netty.util.concurrent.ImmediateExecutor;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 分片的时间轮。
+ *                HashedWheelTimer 只有一个 worker 线程消费 timeouts 队列，所有线程共用一个 pendingTimeouts 计数器，
+ *                大量线程同时 newTimeout 时，这个队列和计数器就成了瓶颈。
+ *                这里持有 N 个 HashedWheelTimer，每个都有自己的 worker、队列和计数器，根据调用线程选择其中一个
+ * @date : 2024-03-04 20:05
+ */
+public class ShardedHashedWheelTimer implements Timer {
+    /**
+     * 所有分片
+     */
+    public final HashedWheelTimer[] shards;
+
+    /**
+     *
+     * @param shards 分片个数，每个分片一个 worker 线程
+     * @param threadFactory
+     * @param tickDuration
+     * @param unit
+     * @param ticksPerWheel
+     * @param leakDetection
+     * @param maxPendingTimeouts 所有分片加起来最多有多少个任务，平均分给每一个分片
+     */
+    public ShardedHashedWheelTimer(int shards,
+                                   ThreadFactory threadFactory,
+                                   long tickDuration,
+                                   TimeUnit unit,
+                                   int ticksPerWheel,
+                                   boolean leakDetection,
+                                   long maxPendingTimeouts) {
+        this(shards, threadFactory, tickDuration, unit, ticksPerWheel, leakDetection, maxPendingTimeouts,
+                1, ImmediateExecutor.INSTANCE);
+    }
+
+    /**
+     *
+     * @param shards
+     * @param threadFactory
+     * @param tickDuration
+     * @param unit
+     * @param ticksPerWheel
+     * @param leakDetection
+     * @param maxPendingTimeouts
+     * @param wheelLevels 每个分片的时间轮层数
+     * @param taskExecutor 所有分片共用的执行到期任务的线程池
+     */
+    public ShardedHashedWheelTimer(int shards,
+                                   ThreadFactory threadFactory,
+                                   long tickDuration,
+                                   TimeUnit unit,
+                                   int ticksPerWheel,
+                                   boolean leakDetection,
+                                   long maxPendingTimeouts,
+                                   int wheelLevels,
+                                   Executor taskExecutor) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("shards must be greater than 0: " + shards);
+        }
+        // 向上取整，保证每个分片至少能放一个任务
+        long maxPendingTimeoutsPerShard = maxPendingTimeouts > 0 ? (maxPendingTimeouts + shards - 1) / shards : maxPendingTimeouts;
+        this.shards = new HashedWheelTimer[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new HashedWheelTimer(threadFactory, tickDuration, unit, ticksPerWheel, leakDetection,
+                    maxPendingTimeoutsPerShard, wheelLevels, taskExecutor);
+        }
+    }
+
+    /**
+     * 放到调用线程对应的分片中，返回的 Timeout.timer() 是那个分片
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        return shard().newTimeout(task, delay, unit);
+    }
+
+    /**
+     * 调用线程对应的分片满了时返回 null，不会换一个分片重试
+     * @param task
+     * @param delay
+     * @param unit
+     * @return
+     */
+    @Override
+    public Timeout tryNewTimeout(TimerTask task, long delay, TimeUnit unit) {
+        return shard().tryNewTimeout(task, delay, unit);
+    }
+
+    /**
+     * 同一个线程总是选到同一个分片，这个线程添加的任务都进入同一个 MPSC 队列
+     * @return
+     */
+    public HashedWheelTimer shard() {
+        long id = Thread.currentThread().getId();
+        return shards[(int) ((id & Long.MAX_VALUE) % shards.length)];
+    }
+
+    /**
+     * 所有分片的任务个数
+     * @return
+     */
+    public long pendingTimeouts() {
+        long count = 0;
+        for (HashedWheelTimer shard : shards) {
+            count += shard.pendingTimeouts.get();
+        }
+        return count;
+    }
+
+    /**
+     * 停止所有分片，返回所有分片中没有执行的任务
+     * @return
+     */
+    @Override
+    public Set<Timeout> stop() {
+        Set<Timeout> unprocessedTimeouts = new HashSet<>();
+        for (HashedWheelTimer shard : shards) {
+            unprocessedTimeouts.addAll(shard.stop());
+        }
+        return unprocessedTimeouts;
+    }
+}
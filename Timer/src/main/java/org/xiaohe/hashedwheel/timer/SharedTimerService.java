@@ -0,0 +1,116 @@
+package org.xiaohe.hashedwheel.timer;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.ObjectUtil;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 进程内共享的定时服务。
+ *                每个 HashedWheelTimer 都有自己的 worker 线程和 bucket 数组，进程里每个库各建一个，就有几十个定时线程。
+ *                这里只持有一个底层的 Timer（HashedWheelTimer 或者 ShardedHashedWheelTimer），
+ *                按名字发放 NamespacedTimer，各个库拿到的都是轻量的视图，共用同一组时间轮和 worker 线程
+ * @date : 2024-04-02 20:05
+ */
+public class SharedTimerService {
+    private static volatile SharedTimerService defaultInstance;
+
+    /**
+     * 底层的时间轮
+     */
+    final Timer backing;
+    private final ConcurrentMap<String, NamespacedTimer> namespaces = new ConcurrentHashMap<>();
+
+    /**
+     * @param backing 由这个服务负责停止
+     */
+    public SharedTimerService(Timer backing) {
+        this.backing = ObjectUtil.checkNotNull(backing, "backing");
+    }
+
+    /**
+     * 进程内默认的共享服务，第一次调用时创建：tickDuration 100ms，512 个 bucket，worker 是守护线程。
+     * 到期任务交给 TaskExecutors.virtualThreadPerTask 执行，一个库的慢任务不会拖慢其他库的任务
+     * @return
+     */
+    public static SharedTimerService getDefault() {
+        SharedTimerService service = defaultInstance;
+        if (service == null) {
+            synchronized (SharedTimerService.class) {
+                service = defaultInstance;
+                if (service == null) {
+                    service = new SharedTimerService(new HashedWheelTimer(
+                            new DefaultThreadFactory("sharedHashedWheelTimer", true),
+                            100, TimeUnit.MILLISECONDS, 512, false, -1, 1, TaskExecutors.virtualThreadPerTask()));
+                    defaultInstance = service;
+                }
+            }
+        }
+        return service;
+    }
+
+    /**
+     * 获取一个不限制任务数的命名空间
+     * @param name
+     * @return
+     */
+    public NamespacedTimer namespace(String name) {
+        return namespace(name, -1);
+    }
+
+    /**
+     * 获取命名空间，同一个名字返回同一个 NamespacedTimer（maxPendingTimeouts 以第一次创建时为准）；
+     * 已经 stop 的命名空间会重新创建一个
+     * @param name
+     * @param maxPendingTimeouts 这个命名空间最多有多少个任务，不大于0表示不限制
+     * @return
+     */
+    public NamespacedTimer namespace(final String name, final long maxPendingTimeouts) {
+        ObjectUtil.checkNotNull(name, "name");
+        for (;;) {
+            NamespacedTimer timer = namespaces.get(name);
+            if (timer != null && !timer.isStopped()) {
+                return timer;
+            }
+            NamespacedTimer newTimer = new NamespacedTimer(name, this, maxPendingTimeouts);
+            if (timer == null ? namespaces.putIfAbsent(name, newTimer) == null
+                    : namespaces.replace(name, timer, newTimer)) {
+                return newTimer;
+            }
+        }
+    }
+
+    /**
+     * NamespacedTimer.stop 时调用
+     * @param timer
+     */
+    void remove(NamespacedTimer timer) {
+        namespaces.remove(timer.name, timer);
+    }
+
+    /**
+     * 当前所有没有 stop 的命名空间
+     * @return
+     */
+    public List<NamespacedTimer> namespaces() {
+        return new ArrayList<>(namespaces.values());
+    }
+
+    /**
+     * 停止所有命名空间和底层的时间轮
+     * @return 底层时间轮中没有执行的任务
+     */
+    public Set<Timeout> stop() {
+        for (NamespacedTimer timer : namespaces()) {
+            timer.stop();
+        }
+        return backing.stop();
+    }
+}
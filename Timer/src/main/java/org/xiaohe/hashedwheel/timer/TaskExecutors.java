@@ -0,0 +1,42 @@
+package org.xiaohe.hashedwheel.timer;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ImmediateExecutor;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author : 小何
+ * @Description : HashedWheelTimer 执行到期任务时可以使用的 Executor
+ * @date : 2024-03-03 15:40
+ */
+public final class TaskExecutors {
+    private TaskExecutors() {
+    }
+
+    /**
+     * 每个到期任务一个虚拟线程，任务再慢也不会占用平台线程。
+     * 虚拟线程要 JDK21 才有，所以通过反射获取 Executors.newVirtualThreadPerTaskExecutor，
+     * 低版本的 JDK 上退化为可以伸缩的线程池
+     * @return
+     */
+    public static ExecutorService virtualThreadPerTask() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(new DefaultThreadFactory("hashedWheelTimerTask", true));
+        }
+    }
+
+    /**
+     * 在 worker 线程中直接执行，和以前的行为一样
+     * @return
+     */
+    public static Executor immediate() {
+        return ImmediateExecutor.INSTANCE;
+    }
+}
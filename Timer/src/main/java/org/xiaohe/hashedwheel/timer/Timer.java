@@ -3,7 +3,10 @@ package org.xiaohe.hashedwheel.timer;
 import org.xiaohe.hashedwheel.timeout.Timeout;
 import org.xiaohe.hashedwheel.timertask.TimerTask;
 
+import java.time.Duration;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -14,9 +17,77 @@ import java.util.concurrent.TimeUnit;
 public interface Timer {
     Timeout newTimeout(TimerTask task, long delay, TimeUnit unit);
 
+    /**
+     * 和 newTimeout 一样，但是任务数达到上限时不抛异常、不阻塞，直接返回 null。
+     * delay、withDeadline 这些适配器用它添加任务，满了时让 future 失败，而不是阻塞调用线程。
+     * 没有任务数上限的实现不需要覆盖
+     * @param task
+     * @param delay
+     * @param unit
+     * @return 满了返回 null
+     */
+    default Timeout tryNewTimeout(TimerTask task, long delay, TimeUnit unit) {
+        return newTimeout(task, delay, unit);
+    }
+
     /**
      * 停止所有任务
      * @return
      */
     Set<Timeout> stop();
+
+    /**
+     * 延迟一段时间之后完成的 future，代替 CompletableFuture.delayedExecutor，不占用 JDK 的 Delayer 线程。
+     * 取消这个 future 会同时取消时间轮中的任务。
+     * future 可能在任意线程中被取消、完成，所以 Timeout.cancel 必须是线程安全的：
+     * HashedWheelTimer 用 CAS，LocalHashedWheelTimer 把其他线程的取消交给事件循环线程处理。
+     * 时间轮满了时 future 以 RejectedExecutionException 结束，不会阻塞调用线程
+     * @param delay
+     * @param unit
+     * @return
+     */
+    default CompletableFuture<Void> delay(long delay, TimeUnit unit) {
+        DelayFuture future = new DelayFuture();
+        Timeout timeout = tryNewTimeout(future, delay, unit);
+        if (timeout == null) {
+            future.completeExceptionally(new RejectedExecutionException("timer is full"));
+            return future;
+        }
+        future.timeout = timeout;
+        return future;
+    }
+
+    default CompletableFuture<Void> delay(Duration duration) {
+        return delay(duration.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 代替 CompletableFuture.orTimeout：future 在 delay 之内没有完成，就以 TimeoutException 结束。
+     * future 完成时在完成它的线程中调用 Timeout.cancel，和 delay 一样要求 cancel 是线程安全的。
+     * future 完成时取消时间轮中的任务，绝大多数 deadline 都不会触发，所以取消要便宜，
+     * HashedWheelTimer 可以用 LAZY 取消策略，取消只是一次 CAS 加一次 LongAdder。
+     * 时间轮满了时 future 以 RejectedExecutionException 结束，不会阻塞调用线程
+     * @param future
+     * @param delay
+     * @param unit
+     * @return 传入的 future
+     */
+    default <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future, long delay, TimeUnit unit) {
+        if (future.isDone()) {
+            return future;
+        }
+        DeadlineTask<T> task = new DeadlineTask<>(future);
+        Timeout timeout = tryNewTimeout(task, delay, unit);
+        if (timeout == null) {
+            future.completeExceptionally(new RejectedExecutionException("timer is full"));
+            return future;
+        }
+        task.timeout = timeout;
+        future.whenComplete(task);
+        return future;
+    }
+
+    default <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future, Duration duration) {
+        return withDeadline(future, duration.toNanos(), TimeUnit.NANOSECONDS);
+    }
 }
@@ -0,0 +1,263 @@
+package org.xiaohe.hashedwheel.timer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author : 小何
+ * @Description : HashedWheelTimer 的持久化日志，文件通过 mmap 映射到内存，追加写不需要系统调用。
+ *                文件格式：8 字节的文件头（魔数 + 版本），后面是定长 25 字节的记录：
+ *                | type 1 | id 8 | deadline 8 | taskKey 8 |
+ *                SCHEDULED 记录新任务，deadline 是墙上时间（毫秒），重启之后 nanoTime 就没有意义了；
+ *                REMOVED 记录任务已经取消或者已经执行，只有 id 有意义。
+ *                type 最后写，type 为 0 的位置是空的。多个线程并发写，崩溃时可能留下抢到了位置却没写完的空洞，
+ *                空洞后面仍然有完整的记录，所以打开文件时要扫描整个文件，最后一条非空记录之后才是日志的结尾。
+ *                文件写满时把还活着的任务重写到新文件中（compact），写入线程用读锁，compact 用写锁
+ * @date : 2024-03-20 21:10
+ */
+public class TimerJournal implements Closeable {
+    private static final int MAGIC = 0x54574A31;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 25;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    public static final byte SCHEDULED = 1;
+    public static final byte REMOVED = 2;
+
+    /**
+     * 恢复时依次拿到每一个还活着的任务
+     */
+    public interface LiveRecordConsumer {
+        void accept(long id, long deadlineMillis, long taskKey);
+    }
+
+    private final File file;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    /**
+     * 下一条记录的写入位置，写入线程用 getAndAdd 抢位置
+     */
+    private final AtomicInteger position = new AtomicInteger();
+    /**
+     * 下一个任务的 id，从 1 开始，0 表示没有持久化的任务
+     */
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 打开日志文件，不存在时创建
+     * @param file
+     * @param capacity 文件大小（字节），写满时 compact，活着的任务太多时翻倍
+     * @throws IOException
+     */
+    public TimerJournal(File file, int capacity) throws IOException {
+        if (capacity < HEADER_SIZE + RECORD_SIZE || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("capacity must be in [" + (HEADER_SIZE + RECORD_SIZE) + ", "
+                    + MAX_CAPACITY + "]: " + capacity);
+        }
+        this.file = file;
+        boolean exists = file.exists() && file.length() > 0;
+        raf = new RandomAccessFile(file, "rw");
+        this.capacity = (int) Math.max(capacity, Math.min(raf.length(), MAX_CAPACITY));
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        if (!exists) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            position.set(HEADER_SIZE);
+            return;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            raf.close();
+            throw new IOException("not a timer journal: " + file);
+        }
+        // 找到日志的结尾，顺便恢复 nextId。跳过空洞，不能在第一个空位置停下
+        int end = HEADER_SIZE;
+        long maxId = 0;
+        for (int pos = HEADER_SIZE; pos <= this.capacity - RECORD_SIZE; pos += RECORD_SIZE) {
+            if (buffer.get(pos) != 0) {
+                maxId = Math.max(maxId, buffer.getLong(pos + 1));
+                end = pos + RECORD_SIZE;
+            }
+        }
+        position.set(end);
+        nextId.set(maxId + 1);
+    }
+
+    /**
+     * 记录一个新任务
+     * @param deadlineMillis 墙上时间
+     * @param taskKey
+     * @return 任务在日志中的 id
+     */
+    public long recordScheduled(long deadlineMillis, long taskKey) {
+        long id = nextId.getAndIncrement();
+        append(SCHEDULED, id, deadlineMillis, taskKey);
+        return id;
+    }
+
+    /**
+     * 记录任务已经取消或者已经执行
+     * @param id
+     */
+    public void recordRemoved(long id) {
+        append(REMOVED, id, 0, 0);
+    }
+
+    private void append(byte type, long id, long deadlineMillis, long taskKey) {
+        for (;;) {
+            lock.readLock().lock();
+            try {
+                int pos = position.getAndAdd(RECORD_SIZE);
+                if (pos >= 0 && pos <= capacity - RECORD_SIZE) {
+                    // 不同线程写不同的位置，绝对位置的 put 不修改 buffer 的 position，可以并发
+                    buffer.putLong(pos + 1, id);
+                    buffer.putLong(pos + 9, deadlineMillis);
+                    buffer.putLong(pos + 17, taskKey);
+                    buffer.put(pos, type);
+                    return;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            compact();
+        }
+    }
+
+    /**
+     * 依次处理所有还活着的任务：有 SCHEDULED 没有 REMOVED 的
+     * @param consumer
+     * @return 活着的任务数
+     */
+    public int forEachLive(LiveRecordConsumer consumer) {
+        lock.writeLock().lock();
+        try {
+            return forEachLive(buffer, Math.min(position.get(), capacity), consumer);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int forEachLive(MappedByteBuffer buffer, int end, LiveRecordConsumer consumer) {
+        // 先收集所有 REMOVED 的 id，排好序，再二分查找，避免千万个 Long 对象
+        long[] removed = new long[1024];
+        int removedCount = 0;
+        for (int pos = HEADER_SIZE; pos <= end - RECORD_SIZE; pos += RECORD_SIZE) {
+            if (buffer.get(pos) == REMOVED) {
+                if (removedCount == removed.length) {
+                    removed = Arrays.copyOf(removed, removedCount << 1);
+                }
+                removed[removedCount++] = buffer.getLong(pos + 1);
+            }
+        }
+        Arrays.sort(removed, 0, removedCount);
+        int live = 0;
+        for (int pos = HEADER_SIZE; pos <= end - RECORD_SIZE; pos += RECORD_SIZE) {
+            if (buffer.get(pos) != SCHEDULED) {
+                continue;
+            }
+            long id = buffer.getLong(pos + 1);
+            if (Arrays.binarySearch(removed, 0, removedCount, id) >= 0) {
+                continue;
+            }
+            consumer.accept(id, buffer.getLong(pos + 9), buffer.getLong(pos + 17));
+            live++;
+        }
+        return live;
+    }
+
+    /**
+     * 文件写满了：把活着的任务写到新文件中，再替换掉旧文件
+     */
+    private void compact() {
+        lock.writeLock().lock();
+        try {
+            if (position.get() >= 0 && position.get() <= capacity - RECORD_SIZE) {
+                // 别的线程已经 compact 过了
+                return;
+            }
+            final int end = capacity;
+            final int[] liveCount = new int[1];
+            forEachLive(buffer, end, new LiveRecordConsumer() {
+                @Override
+                public void accept(long id, long deadlineMillis, long taskKey) {
+                    liveCount[0]++;
+                }
+            });
+            long needed = HEADER_SIZE + (long) liveCount[0] * RECORD_SIZE;
+            int newCapacity = capacity;
+            // 活着的任务占了一半以上，compact 之后很快又会写满，直接翻倍
+            while (needed > newCapacity / 2 && newCapacity < MAX_CAPACITY) {
+                newCapacity = (int) Math.min((long) newCapacity << 1, MAX_CAPACITY);
+            }
+            if (needed > newCapacity - RECORD_SIZE) {
+                throw new IllegalStateException("timer journal is full: " + liveCount[0] + " live timeouts");
+            }
+
+            File compacted = new File(file.getPath() + ".compact");
+            final RandomAccessFile newRaf = new RandomAccessFile(compacted, "rw");
+            newRaf.setLength(0);
+            final MappedByteBuffer newBuffer = newRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+            newBuffer.putInt(0, MAGIC);
+            newBuffer.putInt(4, VERSION);
+            final int[] pos = {HEADER_SIZE};
+            forEachLive(buffer, end, new LiveRecordConsumer() {
+                @Override
+                public void accept(long id, long deadlineMillis, long taskKey) {
+                    newBuffer.putLong(pos[0] + 1, id);
+                    newBuffer.putLong(pos[0] + 9, deadlineMillis);
+                    newBuffer.putLong(pos[0] + 17, taskKey);
+                    newBuffer.put(pos[0], SCHEDULED);
+                    pos[0] += RECORD_SIZE;
+                }
+            });
+            newBuffer.force();
+            // rename 之后映射仍然指向同一个文件
+            Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            raf.close();
+            raf = newRaf;
+            buffer = newBuffer;
+            capacity = newCapacity;
+            position.set(pos[0]);
+        } catch (IOException e) {
+            throw new IllegalStateException("failed to compact timer journal: " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 把修改刷到磁盘。不调用时进程崩溃不会丢数据（在 page cache 中），机器掉电会丢
+     */
+    public void force() {
+        lock.readLock().lock();
+        try {
+            buffer.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            raf.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.xiaohe.hashedwheel.timertask;
+
+import org.xiaohe.hashedwheel.timeout.Timeout;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author : 小何
+ * @Description : 批量执行的任务。同一个 BatchTimerTask 实例的任务在同一次 tick 中到期时，worker 把它们收集起来，
+ *                只调用一次 run(List)，使用者可以一次加锁、一次系统调用、一条日志处理完，比如批量关闭空闲连接。
+ *                添加任务时和普通的 TimerTask 一样，所有同类任务共用一个实例即可
+ * @date : 2024-03-23 14:05
+ */
+public interface BatchTimerTask extends TimerTask {
+    /**
+     * @param timeouts 这一次到期的所有任务，只读。池化模式下 run 返回之后这些 Timeout 会被回收
+     * @throws Exception
+     */
+    void run(List<Timeout> timeouts) throws Exception;
+
+    /**
+     * 单独执行时（比如精确模式下只有一个任务到期）也按批量处理
+     * @param timeout
+     * @throws Exception
+     */
+    @Override
+    default void run(Timeout timeout) throws Exception {
+        run(Collections.singletonList(timeout));
+    }
+}
@@ -0,0 +1,15 @@
+package org.xiaohe.hashedwheel.timertask;
+
+/**
+ * @author : 小何
+ * @Description : PrimitiveHashedWheelTimer 的到期回调，整个时间轮只有一个，按 id 区分是哪个任务到期了
+ * @date : 2024-03-18 20:10
+ */
+public interface ExpiryCallback {
+    /**
+     * 在 worker 线程中调用
+     * @param timeoutId newTimeout 返回的 id
+     * @param attachment newTimeout 时传入的附加值，比如连接的编号
+     */
+    void expired(long timeoutId, long attachment) throws Exception;
+}
@@ -0,0 +1,10 @@
+package org.xiaohe.hashedwheel.timertask;
+
+/**
+ * @author : 小何
+ * @Description : 从 TimerJournal 恢复任务时，根据持久化的 taskKey 重新创建 TimerTask
+ * @date : 2024-03-20 21:02
+ */
+public interface TaskResolver {
+    TimerTask resolve(long taskKey);
+}
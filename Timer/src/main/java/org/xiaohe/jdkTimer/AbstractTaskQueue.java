@@ -0,0 +1,55 @@
+package org.xiaohe.jdkTimer;
+
+/**
+ * @author : 小何
+ * @Description : Timer、TimerThread 使用的任务堆，TaskQueue（二叉堆）和 DaryTaskQueue（d 叉堆）都继承它。
+ *                堆本身不是线程安全的，所有方法都要在 synchronized (queue) 中调用，queue 同时也是 wait/notify 的对象。
+ *                task.heapIndex 是任务在持有它的那个堆的数组中的下标，下标从 0 还是从 1 开始由实现自己决定，
+ *                只有这个堆自己（remove、purge）会解释它，外面不能拿它当下标用
+ * @date : 2024-04-14 19:30
+ */
+public abstract class AbstractTaskQueue {
+    /**
+     * 多线程的 Timer 中，正在等待堆顶任务到期的线程（leader），其他线程（follower）一直 wait，直到被叫醒。
+     * 受 queue 的锁保护，堆顶换成了新任务时置空，让被叫醒的线程按新的堆顶等待
+     */
+    Thread leader;
+
+    public abstract void add(TimerTask task);
+
+    /**
+     * 删除最早执行的任务，调用前要保证不为空
+     */
+    public abstract void removeMin();
+
+    /**
+     * 根据 task.heapIndex 把任务从堆中删除，取消任务时调用，O(log n)
+     * @param task
+     * @return 任务不在这个堆中时返回 false
+     */
+    public abstract boolean remove(TimerTask task);
+
+    /**
+     * 给第一个任务重新设置执行时间
+     * @param newTime
+     */
+    public abstract void rescheduleMin(long newTime);
+
+    /**
+     * 获得最早执行的任务
+     * @return
+     */
+    public abstract TimerTask getMin();
+
+    /**
+     * 删除所有已经取消的任务，然后重新建堆
+     * @return 删除了多少个任务
+     */
+    public abstract int purge();
+
+    public abstract void clear();
+
+    public abstract boolean isEmpty();
+
+    public abstract int size();
+}
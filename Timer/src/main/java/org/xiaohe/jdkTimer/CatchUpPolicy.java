@@ -0,0 +1,22 @@
+package org.xiaohe.jdkTimer;
+
+/**
+ * @author : 小何
+ * @Description : scheduleAtFixedRate 的任务落后时（TimerThread 被拖慢、任务执行太久），怎么追上进度。
+ *                和时间轮的 CatchUpPolicy 含义一样，这里单独定义一份，jdkTimer 不依赖时间轮的包
+ * @date : 2024-04-13 16:10
+ */
+public enum CatchUpPolicy {
+    /**
+     * 错过的每一次都要执行，一次接一次地补上，和 java.util.Timer 一样
+     */
+    FIRE_ALL,
+    /**
+     * 错过的几次合并成一次，马上执行，错过的次数记在 missedExecutions 中
+     */
+    COALESCE,
+    /**
+     * 错过的都不执行了，等到下一个对齐的时间点再执行，错过的次数记在 missedExecutions 中
+     */
+    SKIP
+}
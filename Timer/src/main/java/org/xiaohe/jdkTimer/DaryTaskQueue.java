@@ -0,0 +1,204 @@
+package org.xiaohe.jdkTimer;
+
+import java.util.Arrays;
+
+/**
+ * @author : 小何
+ * @Description : d 叉小根堆，执行时间单独放在一个 long[] 里，和任务数组的下标一一对应。
+ *                TaskQueue 每比较一次都要读 queue[j].nextExecutionTime，任务多的时候每一层都是一次 cache miss；
+ *                这里 fixUp、fixDown 只扫描连续的 long，d 个孩子一般在同一两条 cache line 里，树的高度也只有二叉堆的 1/log2(d)。
+ *                下标（task.heapIndex）从 0 开始
+ * @date : 2024-04-06 15:20
+ */
+public class DaryTaskQueue extends AbstractTaskQueue {
+    private TimerTask[] tasks;
+    /**
+     * deadlines[i] == tasks[i].nextExecutionTime
+     */
+    private long[] deadlines;
+    private int size;
+    /**
+     * 每个节点有 2^shift 个孩子
+     */
+    private final int shift;
+    private final int arity;
+
+    /**
+     * 默认 4 叉堆
+     */
+    public DaryTaskQueue() {
+        this(4);
+    }
+
+    /**
+     * @param arity 每个节点的孩子数，必须是 2 的幂，一般用 4 或者 8
+     */
+    public DaryTaskQueue(int arity) {
+        if (arity < 2 || (arity & (arity - 1)) != 0) {
+            throw new IllegalArgumentException("arity 必须是大于等于2的2的幂: " + arity);
+        }
+        this.arity = arity;
+        this.shift = Integer.numberOfTrailingZeros(arity);
+        this.tasks = new TimerTask[128];
+        this.deadlines = new long[128];
+    }
+
+    @Override
+    public void add(TimerTask task) {
+        if (size == tasks.length) {
+            tasks = Arrays.copyOf(tasks, 2 * tasks.length);
+            deadlines = Arrays.copyOf(deadlines, 2 * deadlines.length);
+        }
+        fixUp(size++, task, task.nextExecutionTime);
+    }
+
+    @Override
+    public void removeMin() {
+        int last = --size;
+        tasks[0].heapIndex = -1;
+        TimerTask task = tasks[last];
+        long time = deadlines[last];
+        tasks[last] = null;
+        if (last > 0) {
+            fixDown(0, task, time);
+        }
+    }
+
+    @Override
+    public boolean remove(TimerTask task) {
+        int i = task.heapIndex;
+        if (i < 0 || i >= size || tasks[i] != task) {
+            return false;
+        }
+        task.heapIndex = -1;
+        int last = --size;
+        TimerTask lastTask = tasks[last];
+        long lastTime = deadlines[last];
+        tasks[last] = null;
+        if (i < last) {
+            if (i > 0 && lastTime < deadlines[(i - 1) >> shift]) {
+                fixUp(i, lastTask, lastTime);
+            } else {
+                fixDown(i, lastTask, lastTime);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void rescheduleMin(long newTime) {
+        TimerTask task = tasks[0];
+        task.nextExecutionTime = newTime;
+        fixDown(0, task, newTime);
+    }
+
+    /**
+     * 从 k 开始往上找 task 的位置，路过的父节点往下挪，最后只写一次 task
+     */
+    private void fixUp(int k, TimerTask task, long time) {
+        while (k > 0) {
+            int parent = (k - 1) >> shift;
+            long parentTime = deadlines[parent];
+            if (parentTime <= time) {
+                break;
+            }
+            tasks[k] = tasks[parent];
+            tasks[k].heapIndex = k;
+            deadlines[k] = parentTime;
+            k = parent;
+        }
+        tasks[k] = task;
+        task.heapIndex = k;
+        deadlines[k] = time;
+    }
+
+    /**
+     * 从 k 开始往下找 task 的位置，每一层在 d 个孩子中找执行时间最早的，只读 deadlines
+     */
+    private void fixDown(int k, TimerTask task, long time) {
+        final long[] deadlines = this.deadlines;
+        final int size = this.size;
+        int first;
+        while ((first = (k << shift) + 1) < size) {
+            int end = Math.min(first + arity, size);
+            int child = first;
+            long childTime = deadlines[first];
+            for (int j = first + 1; j < end; j++) {
+                if (deadlines[j] < childTime) {
+                    childTime = deadlines[j];
+                    child = j;
+                }
+            }
+            if (time <= childTime) {
+                break;
+            }
+            tasks[k] = tasks[child];
+            tasks[k].heapIndex = k;
+            deadlines[k] = childTime;
+            k = child;
+        }
+        tasks[k] = task;
+        task.heapIndex = k;
+        deadlines[k] = time;
+    }
+
+    /**
+     * 已经取消的任务用最后一个任务填上，最后统一重新建堆
+     */
+    @Override
+    public int purge() {
+        int result = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            if (tasks[i].state != TimerTask.CANCELLED) {
+                continue;
+            }
+            int last = --size;
+            tasks[i].heapIndex = -1;
+            if (i < last) {
+                tasks[i] = tasks[last];
+                tasks[i].heapIndex = i;
+                deadlines[i] = deadlines[last];
+            }
+            tasks[last] = null;
+            result++;
+        }
+        if (result != 0) {
+            heapify();
+        }
+        return result;
+    }
+
+    private void heapify() {
+        for (int i = (size - 2) >> shift; i >= 0; i--) {
+            fixDown(i, tasks[i], deadlines[i]);
+        }
+    }
+
+    @Override
+    public TimerTask getMin() {
+        return tasks[0];
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            tasks[i].heapIndex = -1;
+        }
+        Arrays.fill(tasks, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public int arity() {
+        return arity;
+    }
+}
@@ -5,9 +5,10 @@ import java.util.Arrays;
 /**
  * @author : 小何
  * @Description : 存放任务的数组。小根堆
+ *                每个任务的下标记在 task.heapIndex 中（从 1 开始），取消任务时可以直接从中间删除
  * @date : 2024-01-18 14:44
  */
-public class TaskQueue {
+public class TaskQueue extends AbstractTaskQueue {
     /**
      * 存放任务的容器，使用数组实现堆结构
      * 下标 0 不放元素
@@ -16,12 +17,14 @@ public class TaskQueue {
 
     private int size = 0;
 
-    void add(TimerTask task) {
+    @Override
+    public void add(TimerTask task) {
         // 满了就扩容 size *= 2
         if (size + 1 == queue.length) {
             queue = Arrays.copyOf(queue, 2 * queue.length);
         }
         queue[++size] = task;
+        task.heapIndex = size;
         // 将这个任务放到合适的地方
         fixUp(size);
     }
@@ -29,25 +32,49 @@ public class TaskQueue {
     /**
      * 将数组首元素删除
      */
+    @Override
     public void removeMin() {
+        TimerTask min = queue[1];
         // 把最后一个移到第一个，然后将其沉下去
         queue[1] = queue[size];
+        queue[1].heapIndex = 1;
         queue[size] = null;
         size--;
+        min.heapIndex = -1;
         fixDown(1);
     }
 
     public void quickRemove(int i) {
         assert i <= size;
+        TimerTask removed = queue[i];
         queue[i] = queue[size];
+        queue[i].heapIndex = i;
         queue[size] = null;
         size--;
+        removed.heapIndex = -1;
     }
 
-    /**
-     * 给第一个任务重新设置执行时间
-     * @param newTime
-     */
+    @Override
+    public boolean remove(TimerTask task) {
+        int i = task.heapIndex;
+        if (i < 1 || i > size || queue[i] != task) {
+            return false;
+        }
+        task.heapIndex = -1;
+        TimerTask last = queue[size];
+        queue[size] = null;
+        size--;
+        if (i <= size) {
+            // 最后一个任务填到空位上，它可能比原来的父节点早，也可能比孩子晚
+            queue[i] = last;
+            last.heapIndex = i;
+            fixDown(i);
+            fixUp(i);
+        }
+        return true;
+    }
+
+    @Override
     public void rescheduleMin(long newTime) {
         queue[1].nextExecutionTime = newTime;
         fixDown(1);
@@ -64,6 +91,8 @@ public class TaskQueue {
             TimerTask temp = queue[j];
             queue[j] = queue[k];
             queue[k] = temp;
+            queue[j].heapIndex = j;
+            queue[k].heapIndex = k;
             k = j;
         }
     }
@@ -84,6 +113,8 @@ public class TaskQueue {
             TimerTask temp = queue[k];
             queue[k] = queue[j];
             queue[j] = temp;
+            queue[j].heapIndex = j;
+            queue[k].heapIndex = k;
             k = j;
         }
     }
@@ -94,10 +125,7 @@ public class TaskQueue {
         }
     }
 
-    /**
-     * 获得最早执行的任务
-     * @return
-     */
+    @Override
     public TimerTask getMin() {
         return queue[1];
     }
@@ -112,15 +140,35 @@ public class TaskQueue {
         return queue[i];
     }
 
+    @Override
+    public int purge() {
+        int result = 0;
+        for (int i = size; i > 0; i--) {
+            if (queue[i].state == TimerTask.CANCELLED) {
+                quickRemove(i);
+                result++;
+            }
+        }
+        if (result != 0) {
+            heapify();
+        }
+        return result;
+    }
+
+    @Override
     public void clear() {
-        for (int i = 0; i < size; i++) {
+        for (int i = 1; i <= size; i++) {
+            queue[i].heapIndex = -1;
             queue[i] = null;
         }
         size = 0;
     }
+    @Override
     public boolean isEmpty() {
         return size == 0;
     }
+
+    @Override
     public int size() {
         return size;
     }
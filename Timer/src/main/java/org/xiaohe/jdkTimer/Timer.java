@@ -1,6 +1,7 @@
 package org.xiaohe.jdkTimer;
 
 import java.util.Date;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -12,19 +13,36 @@ public class Timer {
     /**
      * 存放任务，小根堆
      */
-    private final TaskQueue queue = new TaskQueue();
+    private final AbstractTaskQueue queue;
 
     /**
      * 工作线程
-     * 负责 : 扫描堆、执行任务
+     * 负责 : 扫描堆、执行任务。
+     * 多于一个时按 leader/follower 的方式共用 queue：leader 等堆顶任务到期，到期后把 leader 交给一个 follower，自己去执行任务
      */
-    private final TimerThread thread = new TimerThread(queue);
+    private final TimerThread[] threads;
+
+    /**
+     * true : 立即取消，cancel 时用 task.heapIndex 把任务从堆中删除，O(log n)
+     * false : 延迟取消，和 java.util.Timer 一样只修改状态，已取消的任务留在堆里，直到到期或者 purge
+     */
+    private volatile boolean eagerCancel = true;
+
+    /**
+     * 无锁提交模式：sched 不拿 queue 和 task.lock 的锁，CAS 修改任务状态之后放进 TimerThread 的 stagingQueue
+     */
+    private final boolean lockFreeSubmission;
 
     private final Object threadReaper = new Object() {
         protected void finalize() throws Throwable {
             synchronized (queue) {
-                thread.newTasksMayBeScheduled = false;
-                queue.notify();
+                for (TimerThread thread : threads) {
+                    thread.newTasksMayBeScheduled = false;
+                }
+                queue.notifyAll();
+            }
+            for (TimerThread thread : threads) {
+                LockSupport.unpark(thread);
             }
         }
     };
@@ -49,14 +67,63 @@ public class Timer {
     }
 
     public Timer(String name) {
-        thread.setName(name);
-        thread.start();
+        // 和以前一样，不设置时继承创建线程的 daemon 属性
+        this(name, Thread.currentThread().isDaemon());
     }
 
     public Timer(String name, boolean isDaemon) {
-        thread.setDaemon(isDaemon);
-        thread.setName(name);
-        thread.start();
+        this(name, isDaemon, new TaskQueue());
+    }
+
+    /**
+     * @param name
+     * @param isDaemon
+     * @param queue 存放任务的堆，比如任务很多时用 DaryTaskQueue
+     */
+    public Timer(String name, boolean isDaemon, AbstractTaskQueue queue) {
+        this(name, isDaemon, queue, 1);
+    }
+
+    /**
+     * 多线程模式：一个慢任务不会拖慢后面的任务。
+     * 同一个周期任务不会同时在两个线程中执行，上一次还没执行完时，这一次跳过
+     * @param name 多个线程时名字后面加上 -0、-1 ...
+     * @param isDaemon
+     * @param queue
+     * @param threads 工作线程的个数
+     */
+    public Timer(String name, boolean isDaemon, AbstractTaskQueue queue, int threads) {
+        this(name, isDaemon, queue, threads, false);
+    }
+
+    /**
+     * @param name
+     * @param isDaemon
+     * @param queue
+     * @param threads
+     * @param lockFreeSubmission 无锁提交模式，生产者很多时 queue 的锁不再是瓶颈，只支持一个工作线程。
+     *                           和 cancel 并发时，已经通过检查的 sched 不会抛异常，任务也不会执行
+     */
+    public Timer(String name, boolean isDaemon, AbstractTaskQueue queue, int threads, boolean lockFreeSubmission) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads 必须大于0: " + threads);
+        }
+        if (lockFreeSubmission && threads > 1) {
+            throw new IllegalArgumentException("lockFreeSubmission only supports a single thread");
+        }
+        this.queue = queue;
+        this.lockFreeSubmission = lockFreeSubmission;
+        this.threads = new TimerThread[threads];
+        for (int i = 0; i < threads; i++) {
+            TimerThread thread = new TimerThread(queue, threads > 1, lockFreeSubmission);
+            thread.setDaemon(isDaemon);
+            thread.setName(threads > 1 ? name + "-" + i : name);
+            this.threads[i] = thread;
+        }
+        for (TimerThread thread : this.threads) {
+            thread.siblings = this.threads;
+            thread.start();
+        }
     }
 
     /**
@@ -118,21 +185,59 @@ public class Timer {
             throw new IllegalArgumentException("Non-positive period.");
         sched(task, firstTime.getTime(), period);
     }
+
+    /**
+     * 固定频率，落后时（GC 停顿、任务执行太久）按 catchUpPolicy 追上进度，而不是一次接一次地补上所有错过的执行。
+     * 合并或者跳过的次数记在 task.missedExecutions() 中
+     * @param task
+     * @param delay
+     * @param period
+     * @param catchUpPolicy
+     */
+    public void scheduleAtFixedRate(TimerTask task, long delay, long period, CatchUpPolicy catchUpPolicy) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("delay 必须大于0");
+        }
+        if (period <= 0) {
+            throw new IllegalArgumentException("period 必须大于0");
+        }
+        sched(task, System.currentTimeMillis() + delay, period, catchUpPolicy);
+    }
+
+    public void scheduleAtFixedRate(TimerTask task, Date firstTime, long period, CatchUpPolicy catchUpPolicy) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period 必须大于0");
+        }
+        sched(task, firstTime.getTime(), period, catchUpPolicy);
+    }
+
+    private void sched(TimerTask task, long time, long period) {
+        sched(task, time, period, CatchUpPolicy.FIRE_ALL);
+    }
+
     /**
      * 最终调用的方法
      * @param task 任务
      * @param time 延迟时间
      * @param period 循环时间
+     * @param catchUpPolicy 固定频率的任务落后时怎么追上进度
      */
-    private void sched(TimerTask task, long time, long period) {
+    private void sched(TimerTask task, long time, long period, CatchUpPolicy catchUpPolicy) {
+        if (catchUpPolicy == null) {
+            throw new NullPointerException("catchUpPolicy");
+        }
         if (time < 0) {
             throw new IllegalArgumentException("Illegal execution time.");
         }
         if (Math.abs(period) > (Long.MAX_VALUE >> 1)) {
             period >>= 1;
         }
+        if (lockFreeSubmission) {
+            schedLockFree(task, time, period, catchUpPolicy);
+            return;
+        }
         synchronized (queue) {
-            if (!thread.newTasksMayBeScheduled) {
+            if (!newTasksMayBeScheduled()) {
                 throw new IllegalStateException("Timer already cancelled.");
             }
             synchronized (task.lock) {
@@ -143,36 +248,91 @@ public class Timer {
                 }
                 task.nextExecutionTime = time;
                 task.period = period;
+                task.catchUpPolicy = catchUpPolicy;
+                task.queue = eagerCancel ? queue : null;
                 task.state = TimerTask.SCHEDULED;
             }
             queue.add(task);
-            // 如果这个任务放到了第一个，叫醒 TimerThread
+            // 如果这个任务放到了第一个，叫醒 TimerThread。
+            // 多线程模式下被叫醒的可能是 follower，所以先撤掉 leader，让它重新按新的堆顶等待
             if (queue.getMin() == task) {
+                queue.leader = null;
                 queue.notify();
             }
         }
     }
 
+    /**
+     * 无锁提交：CAS 代替 task.lock，放进 stagingQueue 代替 queue.add，只有新任务成为最早的任务时才叫醒 TimerThread
+     */
+    private void schedLockFree(TimerTask task, long time, long period, CatchUpPolicy catchUpPolicy) {
+        if (!newTasksMayBeScheduled()) {
+            throw new IllegalStateException("Timer already cancelled.");
+        }
+        if (!TimerTask.STATE_UPDATER.compareAndSet(task, TimerTask.VIRGIN, TimerTask.SCHEDULED)) {
+            throw new IllegalStateException(
+                    "Task already scheduled or cancelled");
+        }
+        task.nextExecutionTime = time;
+        task.period = period;
+        task.catchUpPolicy = catchUpPolicy;
+        task.queue = eagerCancel ? queue : null;
+        // 放进 stagingQueue 之后 TimerThread 才看得到上面的字段
+        threads[0].submit(task, time);
+    }
+
     public void cancel() {
         synchronized (queue) {
-            thread.newTasksMayBeScheduled = false;
+            for (TimerThread thread : threads) {
+                thread.newTasksMayBeScheduled = false;
+            }
             queue.clear();
-            queue.notify();
+            queue.notifyAll();
+        }
+        // 无锁提交模式下 TimerThread 在 park
+        for (TimerThread thread : threads) {
+            LockSupport.unpark(thread);
         }
     }
-    public int purge() {
-        int result = 0;
+    /**
+     * 设置取消模式，只对之后添加的任务生效，默认立即取消。
+     * 立即取消时 cancel 需要拿 queue 的锁；取消很多的场景（比如请求超时）下，延迟取消会让堆里堆满已取消的任务
+     * @param eagerCancel
+     */
+    public void setEagerCancel(boolean eagerCancel) {
+        this.eagerCancel = eagerCancel;
+    }
+
+    public boolean isEagerCancel() {
+        return eagerCancel;
+    }
+
+    /**
+     * 任务个数，包括延迟取消模式下还留在堆里的已取消任务
+     * @return
+     */
+    public int size() {
         synchronized (queue) {
-            for (int i = queue.size(); i > 0; i++) {
-                if (queue.get(i).state == TimerTask.CANCELLED) {
-                    queue.quickRemove(i);
-                    result++;
-                }
-            }
-            if (result != 0) {
-                queue.heapify();
+            return queue.size();
+        }
+    }
+
+    /**
+     * 任何一个工作线程退出，这个 Timer 就不能再用了。普通模式下调用前已经拿到了 queue 的锁
+     * @return
+     */
+    private boolean newTasksMayBeScheduled() {
+        for (TimerThread thread : threads) {
+            if (!thread.newTasksMayBeScheduled) {
+                return false;
             }
         }
-        return result;
+        return true;
+    }
+
+    public int purge() {
+        synchronized (queue) {
+            return queue.purge();
+        }
     }
 }
@@ -1,5 +1,7 @@
 package org.xiaohe.jdkTimer;
 
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
 /**
  * @author : 小何
  * @Description :
@@ -12,9 +14,13 @@ public abstract class TimerTask implements Runnable {
     public final Object lock = new Object();
 
     /**
-     * 该任务的状态
+     * 该任务的状态。
+     * 无锁提交模式下 Timer.sched 不拿 lock，直接用 CAS 把 VIRGIN 改成 SCHEDULED，所以是 volatile 的
      */
-    public int state = VIRGIN;
+    public volatile int state = VIRGIN;
+
+    static final AtomicIntegerFieldUpdater<TimerTask> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(TimerTask.class, "state");
 
     static final int VIRGIN = 0;
 
@@ -35,6 +41,31 @@ public abstract class TimerTask implements Runnable {
      */
     long period;
 
+    /**
+     * 固定频率的任务落后时怎么追上进度，和时间轮的周期任务一样
+     */
+    CatchUpPolicy catchUpPolicy = CatchUpPolicy.FIRE_ALL;
+
+    /**
+     * 因为落后而合并或者跳过的执行次数，多线程的 Timer 中因为上一次还没执行完而跳过的也算，受 lock 保护
+     */
+    long missedExecutions;
+
+    /**
+     * 在堆中的下标，由持有它的 AbstractTaskQueue 维护和解释，不在堆中时为 -1
+     */
+    int heapIndex = -1;
+
+    /**
+     * 立即取消模式下，任务所在的堆，cancel 时直接从堆中删除。延迟取消模式下为空
+     */
+    AbstractTaskQueue queue;
+
+    /**
+     * 多线程的 Timer 中，周期任务是否正在某个线程中执行，受 lock 保护
+     */
+    boolean executing;
+
 
     public TimerTask() {
     }
@@ -49,10 +80,25 @@ public abstract class TimerTask implements Runnable {
     }
 
     /**
-     * 取消该任务。如果状态为 SCHEDULED，则取消成功
+     * 取消该任务。如果状态为 SCHEDULED，则取消成功。
+     * 立即取消模式下同时把任务从堆中删除，和 TimerThread 一样先锁 queue 再锁 lock；
+     * 延迟取消模式下只修改状态，任务留在堆里，直到到期或者 Timer.purge
      * @return
      */
     public boolean cancel() {
+        AbstractTaskQueue queue = this.queue;
+        if (queue != null) {
+            synchronized (queue) {
+                synchronized (lock) {
+                    boolean result = (state == SCHEDULED);
+                    state = CANCELLED;
+                    if (result) {
+                        queue.remove(this);
+                    }
+                    return result;
+                }
+            }
+        }
         synchronized (lock) {
             boolean result = (state == SCHEDULED);
             state = CANCELLED;
@@ -70,4 +116,44 @@ public abstract class TimerTask implements Runnable {
             return (period < 0 ? nextExecutionTime + period : nextExecutionTime - period);
         }
     }
+
+    /**
+     * 因为落后而合并或者跳过的执行次数，COALESCE 策略下在 run 中读取，和上一次的值相减就是这一次合并了几次
+     * @return
+     */
+    public long missedExecutions() {
+        synchronized (lock) {
+            return missedExecutions;
+        }
+    }
+
+    /**
+     * TimerThread 调用，调用前已经拿到了 lock：SKIP 策略下，这一次已经晚了一个周期以上，不执行
+     * @param currentTime
+     * @return
+     */
+    boolean isStale(long currentTime) {
+        return period > 0 && catchUpPolicy == CatchUpPolicy.SKIP && nextExecutionTime + period <= currentTime;
+    }
+
+    /**
+     * TimerThread 调用，调用前已经拿到了 lock：周期任务在 currentTime 到期，计算下一次的执行时间
+     * schedule 错过了就错过了，从现在开始计时；scheduleAtFixedRate 从上一次计划的执行时间开始计时，落后时按 catchUpPolicy 处理
+     * @param currentTime
+     * @return
+     */
+    long computeNextExecutionTime(long currentTime) {
+        if (period < 0) {
+            return currentTime - period;
+        }
+        long next = nextExecutionTime + period;
+        if (next > currentTime || catchUpPolicy == CatchUpPolicy.FIRE_ALL) {
+            return next;
+        }
+        // 除了这一次，已经有 behind 次该执行了
+        long behind = (currentTime - next) / period + 1;
+        // COALESCE : 这一次代替它们执行；SKIP : 这一次也不执行
+        missedExecutions += catchUpPolicy == CatchUpPolicy.SKIP ? behind + 1 : behind;
+        return next + behind * period;
+    }
 }
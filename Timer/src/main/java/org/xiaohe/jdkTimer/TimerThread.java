@@ -1,5 +1,11 @@
 package org.xiaohe.jdkTimer;
 
+import io.netty.util.internal.PlatformDependent;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * @author : 小何
  * @Description : 工作线程
@@ -9,21 +15,93 @@ public class TimerThread extends Thread {
     /**
      * 这个标志由 Timer 中的 reaper 设置为false
      */
-    public boolean newTasksMayBeScheduled = true;
+    public volatile boolean newTasksMayBeScheduled = true;
+
+    private AbstractTaskQueue queue;
+
+    /**
+     * 是否和其他 TimerThread 共用 queue
+     */
+    private final boolean pooled;
+
+    /**
+     * 共用 queue 的所有 TimerThread（包括自己），由 Timer 在启动线程之前设置。
+     * 一个线程因为任务抛出 Error 退出时，要把所有线程的 newTasksMayBeScheduled 都清掉，否则其他线程会一直 wait
+     */
+    TimerThread[] siblings;
+
+    public TimerThread(AbstractTaskQueue queue) {
+        this(queue, false);
+    }
+
+    /**
+     * 无锁提交模式下，生产者把任务放进这个队列，由这个线程分批转移到 queue 中。普通模式下为空
+     */
+    private final Queue<TimerTask> stagingQueue;
+
+    /**
+     * 无锁提交模式下，这个线程 park 到什么时候（毫秒）。
+     * 新任务比它早时生产者才 unpark 这个线程；没有 park 时是 Long.MIN_VALUE，生产者不需要叫醒它
+     */
+    private volatile long parkDeadline = Long.MIN_VALUE;
+
+    /**
+     * 每一轮最多从 stagingQueue 转移多少个任务，生产者很多时也不会耽误到期的任务
+     */
+    private static final int MAX_DRAIN_PER_LOOP = 1024;
 
-    private TaskQueue queue;
+    public TimerThread(AbstractTaskQueue queue, boolean pooled) {
+        this(queue, pooled, false);
+    }
 
-    public TimerThread(TaskQueue queue) {
+    /**
+     * @param queue
+     * @param pooled 是否和其他 TimerThread 共用 queue
+     * @param lockFreeSubmission 无锁提交模式，只能有一个 TimerThread
+     */
+    public TimerThread(AbstractTaskQueue queue, boolean pooled, boolean lockFreeSubmission) {
+        if (pooled && lockFreeSubmission) {
+            throw new IllegalArgumentException("lockFreeSubmission only supports a single TimerThread");
+        }
         this.queue = queue;
+        this.pooled = pooled;
+        this.stagingQueue = lockFreeSubmission ? PlatformDependent.<TimerTask>newMpscQueue() : null;
+    }
+
+    /**
+     * 无锁提交模式下，生产者调用：放进 stagingQueue，只有比这个线程正在等的任务更早时才 unpark 它
+     * @param task 状态已经改成 SCHEDULED
+     * @param time 任务的执行时间，放进队列之后 task.nextExecutionTime 可能被这个线程修改，所以单独传进来
+     */
+    void submit(TimerTask task, long time) {
+        stagingQueue.offer(task);
+        // 和 park 之前的顺序相反：这边先放任务再读 parkDeadline，那边先写 parkDeadline 再检查 stagingQueue
+        if (time < parkDeadline) {
+            LockSupport.unpark(this);
+        }
     }
 
     public void run() {
         try {
-            mainLoop();
+            if (stagingQueue != null) {
+                lockFreeLoop();
+            } else {
+                mainLoop();
+            }
         } finally {
             synchronized (queue) {
                 newTasksMayBeScheduled = false;
+                if (siblings != null) {
+                    for (TimerThread sibling : siblings) {
+                        sibling.newTasksMayBeScheduled = false;
+                    }
+                }
+                if (stagingQueue != null) {
+                    stagingQueue.clear();
+                }
                 queue.clear();
+                // 其他线程发现 queue 空了并且 newTasksMayBeScheduled 为 false 就会退出
+                queue.notifyAll();
             }
         }
     }
@@ -46,6 +124,11 @@ public class TimerThread extends Thread {
                     if (queue.isEmpty()) {
                         break;
                     }
+                    // 已经有 leader 在等堆顶的任务了，follower 一直等，直到 leader 把位置让出来
+                    if (queue.leader != null && queue.leader != this) {
+                        queue.wait();
+                        continue;
+                    }
                     long currentTime, executionTime;
                     task = queue.getMin();
                     // 锁住这个任务的lock
@@ -55,6 +138,8 @@ public class TimerThread extends Thread {
                             queue.removeMin();
                             continue;
                         }
+                        // 这个周期任务上一次还在别的线程中执行，这一次跳过，同一个任务不会同时执行
+                        boolean skipped = task.executing;
                         currentTime = System.currentTimeMillis();
                         executionTime = task.nextExecutionTime;
                         // 如果需要执行的时间小于当前时间，那么这个任务就能执行
@@ -69,24 +154,133 @@ public class TimerThread extends Thread {
                                 // 1. 调用 schedule 方法，period < 0.
                                 // 2. 调用 scheduleFixedRate 方法，period > 0.
                                 // 它俩的区别是：schedule错过了就错过了，从现在开始计时。scheduleFixedRate错过了也要从指定时间开始计时。
-                                queue.rescheduleMin(
-                                        task.period < 0 ? currentTime - task.period : executionTime + task.period
-                                );
+                                boolean stale = task.isStale(currentTime);
+                                queue.rescheduleMin(task.computeNextExecutionTime(currentTime));
+                                if (skipped) {
+                                    task.missedExecutions++;
+                                    continue;
+                                }
+                                if (stale) {
+                                    continue;
+                                }
+                                task.executing = pooled;
                             }
                         }
                     }
-                    // 如果没有被执行，这个线程wait一会
+                    // 如果没有被执行，这个线程作为 leader wait 一会
                     if (!taskFired) {
-                        queue.wait(executionTime - currentTime);
+                        queue.leader = this;
+                        try {
+                            queue.wait(executionTime - currentTime);
+                        } finally {
+                            if (queue.leader == this) {
+                                queue.leader = null;
+                            }
+                        }
+                        continue;
+                    }
+                    // 要去执行任务了，如果还有任务，叫醒一个 follower 当 leader
+                    if (queue.leader == this) {
+                        queue.leader = null;
+                    }
+                    if (pooled && queue.leader == null && !queue.isEmpty()) {
+                        queue.notify();
                     }
                 }
                 // 如果被点燃了，就执行这个任务
-                if (taskFired) {
+                try {
+                    task.run();
+                } finally {
+                    if (task.executing) {
+                        synchronized (task.lock) {
+                            task.executing = false;
+                        }
+                    }
+                }
+            } catch (Exception e) {
+
+            }
+        }
+    }
+
+    /**
+     * 无锁提交模式的循环：任务从 stagingQueue 分批进入 queue，等待时用 park 而不是 queue.wait，
+     * 生产者不需要拿 queue 的锁。queue 的锁只和 cancel、purge 竞争
+     */
+    private void lockFreeLoop() {
+        while (true) {
+            try {
+                TimerTask task = null;
+                // 要 park 到什么时候，Long.MAX_VALUE 表示一直 park，Long.MIN_VALUE 表示 task 到期了
+                long deadline;
+                synchronized (queue) {
+                    drainStagingQueue();
+                    if (queue.isEmpty()) {
+                        if (!newTasksMayBeScheduled) {
+                            break;
+                        }
+                        deadline = Long.MAX_VALUE;
+                    } else {
+                        task = queue.getMin();
+                        synchronized (task.lock) {
+                            if (task.state == TimerTask.CANCELLED) {
+                                queue.removeMin();
+                                continue;
+                            }
+                            long currentTime = System.currentTimeMillis();
+                            long executionTime = task.nextExecutionTime;
+                            if (executionTime <= currentTime) {
+                                deadline = Long.MIN_VALUE;
+                                if (task.period == 0) {
+                                    queue.removeMin();
+                                    task.state = TimerTask.EXECUTED;
+                                } else {
+                                    boolean stale = task.isStale(currentTime);
+                                    queue.rescheduleMin(task.computeNextExecutionTime(currentTime));
+                                    if (stale) {
+                                        continue;
+                                    }
+                                }
+                            } else {
+                                deadline = executionTime;
+                            }
+                        }
+                    }
+                }
+                if (deadline == Long.MIN_VALUE) {
                     task.run();
+                    continue;
                 }
+                // 先公布 parkDeadline，再检查一次 stagingQueue，不会丢失唤醒
+                parkDeadline = deadline;
+                if (stagingQueue.isEmpty() && newTasksMayBeScheduled) {
+                    if (deadline == Long.MAX_VALUE) {
+                        LockSupport.park(this);
+                    } else {
+                        LockSupport.parkNanos(this,
+                                TimeUnit.MILLISECONDS.toNanos(deadline - System.currentTimeMillis()));
+                    }
+                }
+                parkDeadline = Long.MIN_VALUE;
             } catch (Exception e) {
 
             }
         }
     }
+
+    /**
+     * 把 stagingQueue 中的任务放进堆，已经取消的直接丢掉，Timer 已经 cancel 时全部丢掉。调用前已经拿到了 queue 的锁
+     */
+    private void drainStagingQueue() {
+        for (int i = 0; i < MAX_DRAIN_PER_LOOP; i++) {
+            TimerTask task = stagingQueue.poll();
+            if (task == null) {
+                return;
+            }
+            if (task.state == TimerTask.CANCELLED || !newTasksMayBeScheduled) {
+                continue;
+            }
+            queue.add(task);
+        }
+    }
 }
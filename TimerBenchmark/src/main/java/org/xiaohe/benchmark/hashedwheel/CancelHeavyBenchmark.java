@@ -0,0 +1,176 @@
+package org.xiaohe.benchmark.hashedwheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xiaohe.hashedwheel.timeout.HashedWheelTimeout;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timer.CancellationStrategy;
+import org.xiaohe.hashedwheel.timer.HashedWheelTimer;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 99% 的任务都会被取消的场景（比如请求超时，绝大部分请求都会按时返回），比较 EAGER 和 LAZY 两种取消策略。
+ *                每添加一个 30s 的任务，就取消 CANCEL_DISTANCE 个之前添加的任务（99% 的概率），此时它早就被转移到 bucket 中了。
+ *                1. scheduleAndCancel : 单线程，worker 线程不启动，直接调用 Worker.processTick，每添加 TIMEOUTS_PER_TICK 个任务时间轮走一格，分数包含生产者和 worker 两边的开销；
+ *                   每一轮结束时分别打印生产者每个任务的耗时、worker 每一格的耗时（以及 metrics 中 expireTimeouts 的最大耗时）、墓碑数
+ *                2. concurrentCancel : PRODUCERS 个生产者线程同时添加、取消，只统计生产者一侧的吞吐量。
+ *                   这里 worker 线程正常启动，按 tickDuration 处理取消队列和墓碑，
+ *                   不用一个线程不停地 processTick：那样 worker 和生产者的速度比例由线程调度决定，每一格的耗时没有意义
+ * @date : 2024-03-09 17:20
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CancelHeavyBenchmark {
+    private static final long TICK_DURATION = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long REQUEST_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+    private static final int TIMEOUTS_PER_TICK = 100;
+    /**
+     * 任务添加之后，再添加这么多个任务才会取消它，此时它早就被转移到 bucket 中了
+     */
+    private static final int CANCEL_DISTANCE = 16 * 1024;
+    private static final int PRODUCERS = 3;
+
+    private static final TimerTask NOOP = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+        }
+    };
+
+    /**
+     * 生产者自己的环形数组，记住 CANCEL_DISTANCE 个之前添加的任务
+     */
+    @State(Scope.Thread)
+    public static class Producer {
+        private final Timeout[] ring = new Timeout[CANCEL_DISTANCE];
+        private int cursor;
+
+        /**
+         * 添加一个任务，取消 CANCEL_DISTANCE 个之前添加的任务，每 100 个任务中只有 1 个会到期
+         */
+        void scheduleAndCancel(HashedWheelTimer timer, HashedWheelTimer.Worker worker) {
+            HashedWheelTimeout timeout = new HashedWheelTimeout(timer, NOOP,
+                    TICK_DURATION * worker.tick + REQUEST_TIMEOUT);
+            timer.pendingTimeouts.incrementAndGet();
+            timer.timeouts.add(timeout);
+            int slot = cursor++ & (CANCEL_DISTANCE - 1);
+            Timeout old = ring[slot];
+            if (old != null && (cursor % 100) != 0) {
+                old.cancel();
+            }
+            ring[slot] = timeout;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SingleThread {
+        @Param({"EAGER", "LAZY"})
+        public CancellationStrategy strategy;
+
+        HashedWheelTimer timer;
+        HashedWheelTimer.Worker worker;
+        long producerNanos;
+        long workerNanos;
+        long ticks;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            timer = new HashedWheelTimer(Executors.defaultThreadFactory(), TICK_DURATION, TimeUnit.NANOSECONDS,
+                    512, false, -1);
+            timer.setCancellationStrategy(strategy);
+            worker = timer.worker;
+        }
+
+        @Setup(Level.Iteration)
+        public void resetCounters() {
+            producerNanos = 0;
+            workerNanos = 0;
+            ticks = 0;
+            timer.metrics.resetPeaks();
+        }
+
+        @TearDown(Level.Iteration)
+        public void report() {
+            System.out.printf("%n%s : producer %.1f ns/timeout, worker %.1f us/tick (max expireTimeouts %.1f us), "
+                            + "pending %,d, tombstones %,d%n",
+                    strategy, (double) producerNanos / (ticks * TIMEOUTS_PER_TICK), workerNanos / 1000.0 / ticks,
+                    timer.metrics.getMaxExpireNanos() / 1000.0, timer.pendingTimeouts.get(),
+                    timer.tombstones.sum());
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Shared {
+        @Param({"EAGER", "LAZY"})
+        public CancellationStrategy strategy;
+
+        HashedWheelTimer timer;
+        HashedWheelTimer.Worker worker;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            timer = new HashedWheelTimer(Executors.defaultThreadFactory(), TICK_DURATION, TimeUnit.NANOSECONDS,
+                    512, false, -1);
+            timer.setCancellationStrategy(strategy);
+            worker = timer.worker;
+            timer.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            timer.stop();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TIMEOUTS_PER_TICK)
+    public long scheduleAndCancel(SingleThread state, Producer producer) {
+        long start = System.nanoTime();
+        for (int i = 0; i < TIMEOUTS_PER_TICK; i++) {
+            producer.scheduleAndCancel(state.timer, state.worker);
+        }
+        long tickStart = System.nanoTime();
+        state.worker.processTick(TICK_DURATION * (state.worker.tick + 1));
+        long end = System.nanoTime();
+        state.producerNanos += tickStart - start;
+        state.workerNanos += end - tickStart;
+        state.ticks++;
+        return state.timer.pendingTimeouts.get();
+    }
+
+    @Benchmark
+    @Group("concurrentCancel")
+    @GroupThreads(PRODUCERS)
+    public void producer(Shared shared, Producer producer) {
+        producer.scheduleAndCancel(shared.timer, shared.worker);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CancelHeavyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,79 @@
+package org.xiaohe.benchmark.hashedwheel;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timer.HashedWheelTimer;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author : 小何
+ * @Description : 比较 Thread.sleep、parkNanos、parkNanos + 自旋 三种等待方式下，任务实际执行时间比要求的晚了多久。
+ *                tickDuration 默认 100µs，任务延迟在 [0.1ms, 50ms) 之间均匀分布，结果用 HdrHistogram 统计。
+ *                运行: java -cp target/benchmarks.jar org.xiaohe.benchmark.hashedwheel.HighResolutionJitter
+ *                      [tickMicros] [seconds] [tasksPerSecond] [spinMicros]
+ * @date : 2024-03-16 15:20
+ */
+public class HighResolutionJitter {
+    enum WaitMode {
+        /**
+         * 默认模式，按毫秒向上取整的 Thread.sleep
+         */
+        SLEEP,
+        PARK,
+        PARK_SPIN
+    }
+
+    public static void main(String[] args) {
+        long tickMicros = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        long tasksPerSecond = args.length > 2 ? Long.parseLong(args[2]) : 20_000;
+        long spinMicros = args.length > 3 ? Long.parseLong(args[3]) : 50;
+
+        for (WaitMode mode : WaitMode.values()) {
+            HashedWheelTimer timer = new HashedWheelTimer(Executors.defaultThreadFactory(), tickMicros,
+                    TimeUnit.MICROSECONDS, 1024, false, -1);
+            if (mode != WaitMode.SLEEP) {
+                timer.setHighResolution(true);
+            }
+            if (mode == WaitMode.PARK_SPIN) {
+                timer.setSpinThreshold(spinMicros, TimeUnit.MICROSECONDS);
+            }
+            Histogram histogram = run(timer, seconds, tasksPerSecond);
+            System.out.printf("%n%s (tick=%dus) : expiry lateness in us, %d samples%n",
+                    mode, tickMicros, histogram.getTotalCount());
+            histogram.outputPercentileDistribution(System.out, 5, 1_000.0);
+        }
+    }
+
+    private static Histogram run(HashedWheelTimer timer, long seconds, long tasksPerSecond) {
+        final Recorder recorder = new Recorder(3);
+        final long interval = TimeUnit.SECONDS.toNanos(1) / tasksPerSecond;
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long next = System.nanoTime();
+        while (next < end) {
+            long delay = ThreadLocalRandom.current().nextLong(TimeUnit.MICROSECONDS.toNanos(100),
+                    TimeUnit.MILLISECONDS.toNanos(50));
+            final long expected = System.nanoTime() + delay;
+            timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) {
+                    recorder.recordValue(Math.max(0, System.nanoTime() - expected));
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+        timer.stop();
+        return recorder.getIntervalHistogram();
+    }
+}
@@ -0,0 +1,78 @@
+package org.xiaohe.benchmark.hashedwheel;
+
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timer.HashedWheelTimer;
+import org.xiaohe.hashedwheel.timer.TimerJournal;
+import org.xiaohe.hashedwheel.timertask.TaskResolver;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 重启恢复的耗时：先添加 N 个持久化任务（一半被取消），停止时间轮，再用新的时间轮 restore。
+ *                运行: java -Xmx4g -cp target/benchmarks.jar org.xiaohe.benchmark.hashedwheel.JournalRecovery [timeouts] [journalFile]
+ * @date : 2024-03-21 19:45
+ */
+public class JournalRecovery {
+    private static final TimerTask NOOP = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+        }
+    };
+
+    public static void main(String[] args) throws IOException {
+        int timeouts = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        File file = args.length > 1 ? new File(args[1]) : File.createTempFile("timer-journal", ".log");
+        file.delete();
+        // 每个任务一条 SCHEDULED，一半还有一条 REMOVED
+        int capacity = (int) Math.min(1L << 30, 2L * timeouts * TimerJournal.RECORD_SIZE);
+
+        long start = System.nanoTime();
+        TimerJournal journal = new TimerJournal(file, capacity);
+        HashedWheelTimer timer = newTimer(journal);
+        for (int i = 0; i < timeouts; i++) {
+            Timeout timeout = timer.newDurableTimeout(i, NOOP, 1, TimeUnit.HOURS);
+            if ((i & 1) == 0) {
+                timeout.cancel();
+            }
+        }
+        timer.stop();
+        journal.close();
+        System.out.printf("journal %,d timeouts : %d ms, %,d bytes%n", timeouts,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), file.length());
+
+        start = System.nanoTime();
+        journal = new TimerJournal(file, capacity);
+        timer = newTimer(journal);
+        List<Timeout> restored = timer.restore(new TaskResolver() {
+            @Override
+            public TimerTask resolve(long taskKey) {
+                return NOOP;
+            }
+        });
+        long loaded = System.nanoTime();
+        timer.start();
+        // 等 worker 把恢复的任务放进 bucket
+        while (timer.metrics.getTicks() == 0) {
+            Thread.yield();
+        }
+        long placed = System.nanoTime();
+        System.out.printf("restore %,d live timeouts : load %d ms, place into buckets %d ms%n", restored.size(),
+                TimeUnit.NANOSECONDS.toMillis(loaded - start), TimeUnit.NANOSECONDS.toMillis(placed - loaded));
+        timer.stop();
+        journal.close();
+        file.delete();
+    }
+
+    private static HashedWheelTimer newTimer(TimerJournal journal) {
+        HashedWheelTimer timer = new HashedWheelTimer(Executors.defaultThreadFactory(), 100, TimeUnit.MILLISECONDS,
+                512, false, -1, 3);
+        timer.setJournal(journal);
+        return timer;
+    }
+}
@@ -0,0 +1,80 @@
+package org.xiaohe.benchmark.hashedwheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timer.AdmissionPolicy;
+import org.xiaohe.hashedwheel.timer.HashedWheelTimer;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 池化模式每次 newTimeout 分配多少字节。要加 -prof gc 运行，看 gc.alloc.rate.norm：
+ *                java -jar target/benchmarks.jar PooledAllocationBenchmark -prof gc
+ *                worker 线程真实运行，任务 1ms 后到期并在 worker 线程中回收，和生产环境一样每次回收都是跨线程的。
+ *                maxPendingTimeouts 加 BLOCK 策略限制生产者，不让它把对象池和堆撑爆
+ * @date : 2024-04-12 20:40
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PooledAllocationBenchmark {
+    private static final int MAX_PENDING_TIMEOUTS = 16 * 1024;
+
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    private HashedWheelTimer timer;
+
+    private static final TimerTask NOOP = new TimerTask() {
+        @Override
+        public void run(Timeout timeout) {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setup() {
+        timer = new HashedWheelTimer(Executors.defaultThreadFactory(), 1, TimeUnit.MILLISECONDS,
+                512, false, MAX_PENDING_TIMEOUTS);
+        timer.setPooled(pooled);
+        timer.setAdmissionPolicy(AdmissionPolicy.BLOCK);
+        timer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        timer.stop();
+    }
+
+    @Benchmark
+    public Timeout newTimeout() {
+        return timer.newTimeout(NOOP, 1, TimeUnit.MILLISECONDS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PooledAllocationBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,93 @@
+package org.xiaohe.benchmark.hashedwheel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xiaohe.hashedwheel.timeout.HashedWheelTimeout;
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timer.HashedWheelTimer;
+import org.xiaohe.hashedwheel.timertask.TimerTask;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 单层时间轮和层级时间轮每一次 tick 的耗时。
+ *                模拟大量 30 分钟的会话超时：任务到期后立刻续期 30 分钟，时间轮里的任务数保持不变。
+ *                worker 线程不启动，直接调用 Worker.processTick 驱动时间轮
+ * @date : 2024-03-02 10:21
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TickCostBenchmark {
+    private static final long TICK_DURATION = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long SESSION_TIMEOUT = TimeUnit.MINUTES.toNanos(30);
+
+    /**
+     * 1 : 单层时间轮，用 remainingRounds 记录圈数
+     * 3 : 层级时间轮
+     */
+    @Param({"1", "3"})
+    public int wheelLevels;
+
+    @Param({"100000", "1000000"})
+    public int pendingTimeouts;
+
+    private HashedWheelTimer timer;
+    private HashedWheelTimer.Worker worker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        timer = new HashedWheelTimer(Executors.defaultThreadFactory(), TICK_DURATION, TimeUnit.NANOSECONDS,
+                512, false, -1, wheelLevels);
+        worker = timer.worker;
+        TimerTask renew = new TimerTask() {
+            @Override
+            public void run(Timeout timeout) {
+                // 会话续期，重新放入 timeouts
+                schedule(this, ((HashedWheelTimeout) timeout).deadline + SESSION_TIMEOUT);
+            }
+        };
+        // 到期时间均匀分布在未来 30 分钟内
+        for (int i = 0; i < pendingTimeouts; i++) {
+            schedule(renew, TICK_DURATION + SESSION_TIMEOUT / pendingTimeouts * i);
+        }
+        while (!timer.timeouts.isEmpty()) {
+            worker.transferTimeoutsToBuckets();
+        }
+    }
+
+    private void schedule(TimerTask task, long deadline) {
+        timer.pendingTimeouts.incrementAndGet();
+        timer.timeouts.add(new HashedWheelTimeout(timer, task, deadline));
+    }
+
+    @Benchmark
+    public long tick() {
+        worker.processTick(TICK_DURATION * (worker.tick + 1));
+        return worker.tick;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TickCostBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,121 @@
+package org.xiaohe.benchmark.jdktimer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xiaohe.jdkTimer.AbstractTaskQueue;
+import org.xiaohe.jdkTimer.DaryTaskQueue;
+import org.xiaohe.jdkTimer.TaskQueue;
+import org.xiaohe.jdkTimer.TimerTask;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : jdkTimer 的二叉堆 TaskQueue 和 DaryTaskQueue 的比较。
+ *                堆里一直保持 size 个任务，执行时间均匀分布在 [0, size * MEAN_INCREMENT) 内：
+ *                removeMinThenAdd 删掉最早的任务，再加一个比它晚一个随机增量的新任务；
+ *                rescheduleMin 把最早的任务往后推一个随机增量，相当于周期任务执行了一次
+ * @date : 2024-04-06 16:05
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public class TaskQueueBenchmark {
+    private static final int MEAN_INCREMENT = 1000;
+    private static final int INCREMENTS = 1 << 16;
+
+    /**
+     * BINARY : TaskQueue
+     * DARY_4 / DARY_8 : DaryTaskQueue(4) / DaryTaskQueue(8)
+     */
+    @Param({"BINARY", "DARY_4", "DARY_8"})
+    public String queueType;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int size;
+
+    private AbstractTaskQueue queue;
+    /**
+     * 预先生成的随机增量，平均值是 size * MEAN_INCREMENT，新任务的位置在整个堆里均匀分布
+     */
+    private final long[] increments = new long[INCREMENTS];
+    private int cursor;
+
+    private static final class NoopTask extends TimerTask {
+        NoopTask(long nextExecutionTime) {
+            super(nextExecutionTime, 0);
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (queueType) {
+            case "BINARY":
+                queue = new TaskQueue();
+                break;
+            case "DARY_4":
+                queue = new DaryTaskQueue(4);
+                break;
+            case "DARY_8":
+                queue = new DaryTaskQueue(8);
+                break;
+            default:
+                throw new IllegalArgumentException(queueType);
+        }
+        Random random = new Random(42);
+        long range = (long) size * MEAN_INCREMENT;
+        for (int i = 0; i < size; i++) {
+            queue.add(new NoopTask((long) (random.nextDouble() * range)));
+        }
+        for (int i = 0; i < INCREMENTS; i++) {
+            increments[i] = (long) (random.nextDouble() * 2 * range);
+        }
+    }
+
+    private long nextIncrement() {
+        return increments[cursor++ & (INCREMENTS - 1)];
+    }
+
+    @Benchmark
+    public TimerTask removeMinThenAdd() {
+        long time = queue.getMin().scheduleExecutionTime();
+        queue.removeMin();
+        TimerTask task = new NoopTask(time + nextIncrement());
+        queue.add(task);
+        return task;
+    }
+
+    @Benchmark
+    public TimerTask rescheduleMin() {
+        TimerTask min = queue.getMin();
+        queue.rescheduleMin(min.scheduleExecutionTime() + nextIncrement());
+        return min;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TaskQueueBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
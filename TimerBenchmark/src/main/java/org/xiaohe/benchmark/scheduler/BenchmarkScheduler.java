@@ -0,0 +1,30 @@
+package org.xiaohe.benchmark.scheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 把 jdkTimer.Timer、HashedWheelTimer、ScheduledThreadPoolExecutor 包装成同一个接口，方便在同一个基准测试里比较
+ * @date : 2024-03-12 20:05
+ */
+public interface BenchmarkScheduler {
+    /**
+     * 提交一个一次性任务
+     * @param task
+     * @param delay
+     * @param unit
+     * @return 取消时用的句柄
+     */
+    Object schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * 取消 schedule 返回的任务
+     * @param handle
+     */
+    void cancel(Object handle);
+
+    /**
+     * 停止工作线程，丢掉所有未执行的任务
+     */
+    void shutdown();
+}
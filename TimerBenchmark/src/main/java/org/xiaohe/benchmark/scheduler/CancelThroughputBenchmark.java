@@ -0,0 +1,83 @@
+package org.xiaohe.benchmark.scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 取消的吞吐量。每次调用提交一个任务，并取消 RING_SIZE 次调用之前提交的任务，
+ *                被取消的任务早已进入了堆 / 时间轮，取消的开销包含了工作线程清理它的开销。
+ *                JDK_TIMER 取消时立即从堆中删除；JDK_TIMER_LAZY 取消只改状态，任务要等到期才从堆中删除，所以任务的延迟不能太长
+ * @date : 2024-03-12 20:48
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CancelThroughputBenchmark {
+    private static final long DELAY = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int RING_SIZE = 16 * 1024;
+
+    @Param({"JDK_TIMER", "JDK_TIMER_LAZY", "HASHED_WHEEL", "SCHEDULED_THREAD_POOL"})
+    public SchedulerType scheduler;
+
+    @Param({"10"})
+    public long tickMillis;
+
+    @Param({"512"})
+    public int ticksPerWheel;
+
+    private BenchmarkScheduler instance;
+    private final Object[] ring = new Object[RING_SIZE];
+    private int cursor;
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        instance = scheduler.create(tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel);
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = instance.schedule(NOOP, DELAY, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        instance.shutdown();
+    }
+
+    @Benchmark
+    public Object scheduleAndCancel() {
+        int slot = cursor++ & (RING_SIZE - 1);
+        instance.cancel(ring[slot]);
+        return ring[slot] = instance.schedule(NOOP, DELAY, TimeUnit.NANOSECONDS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CancelThroughputBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
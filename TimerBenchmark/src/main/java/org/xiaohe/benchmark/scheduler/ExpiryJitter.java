@@ -0,0 +1,63 @@
+package org.xiaohe.benchmark.scheduler;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author : 小何
+ * @Description : 任务实际执行时间和要求的执行时间之差（迟到了多久），用 HdrHistogram 统计分布。
+ *                一个生产者线程以固定的速率提交任务，延迟在 [1ms, 1s) 之间均匀分布。
+ *                运行: java -cp target/benchmarks.jar org.xiaohe.benchmark.scheduler.ExpiryJitter
+ *                      [scheduler] [tickMillis] [ticksPerWheel] [seconds] [tasksPerSecond]
+ * @date : 2024-03-12 21:32
+ */
+public class ExpiryJitter {
+    public static void main(String[] args) {
+        SchedulerType[] types = args.length > 0 && !"ALL".equals(args[0])
+                ? new SchedulerType[]{SchedulerType.valueOf(args[0])} : SchedulerType.values();
+        long tickMillis = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        int ticksPerWheel = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 30;
+        long tasksPerSecond = args.length > 4 ? Long.parseLong(args[4]) : 10_000;
+
+        for (SchedulerType type : types) {
+            Histogram histogram = run(type.create(tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel),
+                    seconds, tasksPerSecond);
+            System.out.printf("%n%s (tickMillis=%d, ticksPerWheel=%d) : expiry lateness in ms, %d samples%n",
+                    type, tickMillis, ticksPerWheel, histogram.getTotalCount());
+            histogram.outputPercentileDistribution(System.out, 5, 1_000_000.0);
+        }
+    }
+
+    private static Histogram run(BenchmarkScheduler scheduler, long seconds, long tasksPerSecond) {
+        final Recorder recorder = new Recorder(3);
+        final long interval = TimeUnit.SECONDS.toNanos(1) / tasksPerSecond;
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long next = System.nanoTime();
+        while (next < end) {
+            long delay = ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(1),
+                    TimeUnit.SECONDS.toNanos(1));
+            final long expected = System.nanoTime() + delay;
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // 提前执行（jdkTimer 按毫秒取整）记为 0
+                    recorder.recordValue(Math.max(0, System.nanoTime() - expected));
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        // 等最后一批任务到期
+        LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(2));
+        scheduler.shutdown();
+        return recorder.getIntervalHistogram();
+    }
+}
@@ -0,0 +1,78 @@
+package org.xiaohe.benchmark.scheduler;
+
+import org.xiaohe.hashedwheel.timer.PrimitiveHashedWheelTimer;
+import org.xiaohe.hashedwheel.timertask.ExpiryCallback;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 每个未到期任务占用多少堆内存。
+ *                JMH 只能测时间，这里直接比较提交任务前后 GC 之后的堆占用，结果包含定时器内部的节点和一个包装任务的对象。
+ *                运行: java -Xmx8g -cp target/benchmarks.jar org.xiaohe.benchmark.scheduler.PendingMemoryFootprint [tickMillis] [ticksPerWheel]
+ * @date : 2024-03-12 21:10
+ */
+public class PendingMemoryFootprint {
+    private static final int[] SIZES = {1_000_000, 10_000_000};
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        long tickMillis = args.length > 0 ? Long.parseLong(args[0]) : 100;
+        int ticksPerWheel = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+        for (int size : SIZES) {
+            for (SchedulerType type : SchedulerType.values()) {
+                BenchmarkScheduler scheduler = type.create(tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel);
+                // 先让工作线程跑起来，它的开销不算在任务头上
+                scheduler.cancel(scheduler.schedule(NOOP, 1, TimeUnit.HOURS));
+                long before = usedHeap();
+                for (int i = 0; i < size; i++) {
+                    scheduler.schedule(NOOP, 1, TimeUnit.HOURS);
+                }
+                // 等时间轮把任务从队列转移到 bucket
+                Thread.sleep(tickMillis * ((size / 100_000) + 2));
+                long after = usedHeap();
+                System.out.printf("%-22s %,12d pending : %6.1f bytes/timeout%n",
+                        type, size, (double) (after - before) / size);
+                scheduler.shutdown();
+            }
+            measurePrimitiveWheel(size, tickMillis, ticksPerWheel);
+        }
+    }
+
+    /**
+     * PrimitiveHashedWheelTimer 没有 Runnable，用 id 代替，单独测
+     */
+    private static void measurePrimitiveWheel(int size, long tickMillis, int ticksPerWheel) throws InterruptedException {
+        long before = usedHeap();
+        PrimitiveHashedWheelTimer timer = new PrimitiveHashedWheelTimer(Executors.defaultThreadFactory(), tickMillis,
+                TimeUnit.MILLISECONDS, ticksPerWheel, size, -1, new ExpiryCallback() {
+            @Override
+            public void expired(long timeoutId, long attachment) {
+            }
+        });
+        for (int i = 0; i < size; i++) {
+            timer.newTimeout(i, 1, TimeUnit.HOURS);
+        }
+        long after = usedHeap();
+        System.out.printf("%-22s %,12d pending : %6.1f bytes/timeout%n",
+                "PRIMITIVE_WHEEL", size, (double) (after - before) / size);
+        timer.stop();
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,88 @@
+package org.xiaohe.benchmark.scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 1 到 N 个生产者线程同时提交任务的吞吐量。
+ *                任务 50ms 后到期，工作线程一边执行一边被生产者争抢，任务数不会无限增长
+ * @date : 2024-03-12 20:30
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScheduleThroughputBenchmark {
+    private static final long DELAY = TimeUnit.MILLISECONDS.toNanos(50);
+
+    @Param({"JDK_TIMER", "JDK_TIMER_LOCK_FREE", "HASHED_WHEEL", "SCHEDULED_THREAD_POOL"})
+    public SchedulerType scheduler;
+
+    @Param({"10"})
+    public long tickMillis;
+
+    @Param({"512"})
+    public int ticksPerWheel;
+
+    private BenchmarkScheduler instance;
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        instance = scheduler.create(tickMillis, TimeUnit.MILLISECONDS, ticksPerWheel);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        instance.shutdown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object schedule1Thread() {
+        return instance.schedule(NOOP, DELAY, TimeUnit.NANOSECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object schedule4Threads() {
+        return instance.schedule(NOOP, DELAY, TimeUnit.NANOSECONDS);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Object scheduleMaxThreads() {
+        return instance.schedule(NOOP, DELAY, TimeUnit.NANOSECONDS);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ScheduleThroughputBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,132 @@
+package org.xiaohe.benchmark.scheduler;
+
+import org.xiaohe.hashedwheel.timeout.Timeout;
+import org.xiaohe.hashedwheel.timer.HashedWheelTimer;
+import org.xiaohe.jdkTimer.TaskQueue;
+import org.xiaohe.jdkTimer.Timer;
+import org.xiaohe.jdkTimer.TimerTask;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author : 小何
+ * @Description : 参与比较的定时器。
+ *                tickDuration、ticksPerWheel 只对时间轮生效，用来挑选生产环境的刻度和轮子大小
+ * @date : 2024-03-12 20:12
+ */
+public enum SchedulerType {
+    /**
+     * 小根堆 + 单个工作线程，时间精度是毫秒。取消时立即从堆中删除
+     */
+    JDK_TIMER {
+        @Override
+        public BenchmarkScheduler create(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+            return jdkTimer(true, false);
+        }
+    },
+    /**
+     * 和 JDK_TIMER 一样，但是取消时只修改状态，和 java.util.Timer 一样
+     */
+    JDK_TIMER_LAZY {
+        @Override
+        public BenchmarkScheduler create(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+            return jdkTimer(false, false);
+        }
+    },
+    /**
+     * 和 JDK_TIMER 一样，但是 sched 不拿锁，任务先放进 MPSC 队列，由工作线程分批放进堆
+     */
+    JDK_TIMER_LOCK_FREE {
+        @Override
+        public BenchmarkScheduler create(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+            return jdkTimer(true, true);
+        }
+    },
+    HASHED_WHEEL {
+        @Override
+        public BenchmarkScheduler create(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+            final HashedWheelTimer timer = new HashedWheelTimer(Executors.defaultThreadFactory(), tickDuration, unit,
+                    ticksPerWheel, false, -1);
+            return new BenchmarkScheduler() {
+                @Override
+                public Object schedule(final Runnable task, long delay, TimeUnit unit) {
+                    return timer.newTimeout(new org.xiaohe.hashedwheel.timertask.TimerTask() {
+                        @Override
+                        public void run(Timeout timeout) {
+                            task.run();
+                        }
+                    }, delay, unit);
+                }
+
+                @Override
+                public void cancel(Object handle) {
+                    ((Timeout) handle).cancel();
+                }
+
+                @Override
+                public void shutdown() {
+                    timer.stop();
+                }
+            };
+        }
+    },
+    /**
+     * JDK 的基准，单线程，取消时立刻从堆中删除
+     */
+    SCHEDULED_THREAD_POOL {
+        @Override
+        public BenchmarkScheduler create(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+            final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+            executor.setRemoveOnCancelPolicy(true);
+            return new BenchmarkScheduler() {
+                @Override
+                public Object schedule(Runnable task, long delay, TimeUnit unit) {
+                    return executor.schedule(task, delay, unit);
+                }
+
+                @Override
+                public void cancel(Object handle) {
+                    ((ScheduledFuture<?>) handle).cancel(false);
+                }
+
+                @Override
+                public void shutdown() {
+                    executor.shutdownNow();
+                }
+            };
+        }
+    };
+
+    public abstract BenchmarkScheduler create(long tickDuration, TimeUnit unit, int ticksPerWheel);
+
+    private static BenchmarkScheduler jdkTimer(boolean eagerCancel, boolean lockFreeSubmission) {
+        final Timer timer = new Timer("benchmarkTimer", true, new TaskQueue(), 1, lockFreeSubmission);
+        timer.setEagerCancel(eagerCancel);
+        return new BenchmarkScheduler() {
+            @Override
+            public Object schedule(final Runnable task, long delay, TimeUnit unit) {
+                TimerTask timerTask = new TimerTask() {
+                    @Override
+                    public void run() {
+                        task.run();
+                    }
+                };
+                timer.schedule(timerTask, unit.toMillis(delay));
+                return timerTask;
+            }
+
+            @Override
+            public void cancel(Object handle) {
+                ((TimerTask) handle).cancel();
+            }
+
+            @Override
+            public void shutdown() {
+                timer.cancel();
+            }
+        };
+    }
+}